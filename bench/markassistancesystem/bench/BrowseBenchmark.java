@@ -0,0 +1,99 @@
+package markassistancesystem.bench;
+
+import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.MarkAssistanceSystemModule;
+import markassistancesystem.presenter.StudentPresenter;
+import markassistancesystem.view.IView;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures stepping through all records with the presenter, which runs
+ * synchronously and displays to a view that does nothing. Steps that cross a
+ * page boundary of the paged window include selecting the page if it has not
+ * been prefetched.
+ *
+ * @author Ziheng Cong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrowseBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    private Cohort cohort;
+    private MarkAssistanceSystemModule msm;
+    private StudentPresenter presenter;
+
+    @Setup
+    public void setup() throws SQLException, ConnectionException {
+        cohort = Cohort.create("browse" + size, size);
+        msm = cohort.connect();
+        presenter = new StudentPresenter(msm, msm, Runnable::run, Runnable::run);
+        presenter.bind(new NullView());
+        presenter.selectAll();
+    }
+
+    @TearDown
+    public void tearDown() {
+        presenter.close();
+        cohort.drop();
+    }
+
+    @Benchmark
+    public void next() {
+        presenter.showNext();
+    }
+
+    @Benchmark
+    public void previous() {
+        presenter.showPrevious();
+    }
+
+    /*
+     * A view that discards everything it is asked to display
+     */
+    private static class NullView implements IView<Object> {
+
+        @Override
+        public void displayRecord(Object r) {
+        }
+
+        @Override
+        public void displayMessage(String m) {
+        }
+
+        @Override
+        public void setBrowsing(boolean b) {
+        }
+
+        @Override
+        public void displayError(String e) {
+            throw new IllegalStateException(e);
+        }
+
+        @Override
+        public void setBusy(boolean b) {
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package markassistancesystem.bench;
+
+import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.GradeEngine;
+import markassistancesystem.model.MarkAssistanceSystemModule;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * A synthetic cohort of student marks held in an embedded in-memory Derby
+ * database, so that the benchmarks need no database server. Marks are random
+ * but repeatable, and the stored grades are those of GradeEngine.
+ *
+ * @author Ziheng Cong
+ */
+final class Cohort {
+
+    private static final String USERNAME = "marks";
+    private static final String PASSWORD = "marks";
+    private static final int COMMIT_SIZE = 1000;
+
+    private final String name;
+    private final int size;
+
+    private Cohort(String name, int size) {
+        this.name = name;
+        this.size = size;
+    }
+
+    /**
+     * Create an in-memory database holding a cohort of the given size
+     * @param name the database name, unique among the open cohorts
+     * @param size the number of student records
+     * @return the cohort
+     * @throws SQLException
+     */
+    static Cohort create(String name, int size) throws SQLException {
+        Cohort c = new Cohort(name, size);
+        try (Connection connection = DriverManager.getConnection(
+                c.url() + ";create=true", USERNAME, PASSWORD)) {
+            try (Statement s = connection.createStatement()) {
+                s.executeUpdate("CREATE TABLE APP.Marks ("
+                        + " StudentID VARCHAR(10) NOT NULL PRIMARY KEY,"
+                        + " Assignment1 INT, Assignment2 INT, Exam INT, Total INT,"
+                        + " Grade CHAR(2))");
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO APP.Marks VALUES (?, ?, ?, ?, ?, ?)")) {
+                Random random = new Random(42);
+                for (int i = 0; i < size; i++) {
+                    int asn1 = random.nextInt(21);
+                    int asn2 = random.nextInt(31);
+                    int exam = random.nextInt(51);
+                    int total = asn1 + asn2 + exam;
+                    ps.setString(1, String.format("S%07d", i));
+                    ps.setInt(2, asn1);
+                    ps.setInt(3, asn2);
+                    ps.setInt(4, exam);
+                    ps.setInt(5, total);
+                    ps.setString(6, GradeEngine.gradeOf(total, asn1, asn2, exam).name());
+                    ps.addBatch();
+                    if ((i + 1) % COMMIT_SIZE == 0) {
+                        ps.executeBatch();
+                        connection.commit();
+                    }
+                }
+                ps.executeBatch();
+                connection.commit();
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @return the JDBC URL of the cohort database
+     */
+    String url() {
+        return "jdbc:derby:memory:" + name;
+    }
+
+    /**
+     * @return the number of student records
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Create a marks manager connected to the cohort and ready for queries
+     * @return the marks manager
+     * @throws ConnectionException
+     */
+    MarkAssistanceSystemModule connect() throws ConnectionException {
+        MarkAssistanceSystemModule msm = new MarkAssistanceSystemModule(url(), USERNAME, PASSWORD);
+        msm.connect();
+        msm.initialise();
+        return msm;
+    }
+
+    /**
+     * Open a plain connection to the cohort database
+     * @return the connection
+     * @throws SQLException
+     */
+    Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url(), USERNAME, PASSWORD);
+        connection.setSchema("APP");
+        return connection;
+    }
+
+    /**
+     * Set every stored grade to F, so that a regrade has work to do
+     * @throws SQLException
+     */
+    void scrambleGrades() throws SQLException {
+        try (Connection connection = open(); Statement s = connection.createStatement()) {
+            s.executeUpdate("UPDATE Marks SET Grade = 'F'");
+        }
+    }
+
+    /**
+     * Discard the cohort database
+     */
+    void drop() {
+        try {
+            DriverManager.getConnection(url() + ";drop=true", USERNAME, PASSWORD).close();
+        } catch (SQLException e) {
+            // Derby reports a successful drop with an exception
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package markassistancesystem.bench;
+
+import markassistancesystem.model.Grade;
+import markassistancesystem.model.GradeEngine;
+import markassistancesystem.model.MarkColumns;
+import markassistancesystem.model.Student;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Measures the heap retained by the marks held as a list of Student objects
+ * and as a MarkColumns store. This is not a JMH benchmark, as JMH measures
+ * time rather than footprint; run it with
+ * ant bench -Dbench.main=markassistancesystem.bench.Footprint, optionally
+ * with the numbers of records in bench.args.
+ * <p>
+ * Each record has an eight character student ID and a grade string of its
+ * own, as returned by JDBC, and the version it was read at. The stores grow
+ * as records are added, as they do when a selection is read, so the figures
+ * include the slack left by growing them. The heap is measured after a full
+ * collection before and after each store is filled; small stores are filled
+ * several times over, and the heap they retain divided among them, so that
+ * the heap measured is large enough not to be lost in the noise.
+ *
+ * @author Ziheng Cong
+ */
+public final class Footprint {
+
+    private static final int[] DEFAULT_SIZES = { 10000, 100000, 1000000 };
+
+    // Collections run before the heap is measured, so that it settles
+    private static final int COLLECTIONS = 5;
+
+    // The fewest records measured at once
+    private static final int MIN_RECORDS = 1000000;
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    // The stores being measured, which must stay reachable while they are
+    private static List<Object> retained;
+
+    private Footprint() {
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        // fill each store once first, so that the classes it uses are loaded
+        // before it is measured
+        students(1000);
+        columns(1000);
+        System.out.printf("%10s %22s %22s%n", "records", "ArrayList<Student>", "MarkColumns");
+        for (int size : sizes) {
+            long list = measure(size, () -> students(size));
+            long columns = measure(size, () -> columns(size));
+            System.out.printf("%10d %13.1f MB %4d B %13.1f MB %4d B%n", size,
+                    list / 1e6, list / size, columns / 1e6, columns / size);
+        }
+    }
+
+    /*
+     * The bytes retained by a store of a number of records that a filler
+     * creates
+     */
+    private static long measure(int size, Supplier<Object> filler) {
+        int copies = Math.max(1, MIN_RECORDS / size);
+        retained = new ArrayList<>(copies);
+        long before = used();
+        for (int i = 0; i < copies; i++) {
+            retained.add(filler.get());
+        }
+        long after = used();
+        retained = null;
+        return (after - before) / copies;
+    }
+
+    private static long used() {
+        for (int i = 0; i < COLLECTIONS; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static List<Student> students(int size) {
+        Random random = new Random(42);
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int asn1 = random.nextInt(21);
+            int asn2 = random.nextInt(31);
+            int exam = random.nextInt(51);
+            students.add(new Student(id(i), asn1, asn2, exam, asn1 + asn2 + exam,
+                    grade(asn1, asn2, exam), i % 3));
+        }
+        return students;
+    }
+
+    private static MarkColumns columns(int size) {
+        Random random = new Random(42);
+        MarkColumns columns = new MarkColumns();
+        for (int i = 0; i < size; i++) {
+            int asn1 = random.nextInt(21);
+            int asn2 = random.nextInt(31);
+            int exam = random.nextInt(51);
+            columns.add(id(i), asn1, asn2, exam, asn1 + asn2 + exam,
+                    Grade.codeOf(grade(asn1, asn2, exam)), i % 3);
+        }
+        return columns;
+    }
+
+    private static String id(int i) {
+        return String.format("S%07d", i);
+    }
+
+    /*
+     * A grade string of its own, as JDBC returns for each row
+     */
+    private static String grade(int asn1, int asn2, int exam) {
+        return new String(GradeEngine.gradeOf(asn1 + asn2 + exam, asn1, asn2, exam).name());
+    }
+
+}
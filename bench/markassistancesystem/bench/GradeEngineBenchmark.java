@@ -0,0 +1,94 @@
+package markassistancesystem.bench;
+
+import markassistancesystem.model.GradeEngine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares GradeEngine with the boxed, string based grade determination that
+ * it replaced, over a fixed cohort of random marks.
+ *
+ * @author Ziheng Cong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradeEngineBenchmark {
+
+    private static final int COHORT = 4096;
+
+    private final int[] total = new int[COHORT];
+    private final int[] asn1 = new int[COHORT];
+    private final int[] asn2 = new int[COHORT];
+    private final int[] exam = new int[COHORT];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < COHORT; i++) {
+            asn1[i] = random.nextInt(21);
+            asn2[i] = random.nextInt(31);
+            exam[i] = random.nextInt(51);
+            total[i] = asn1[i] + asn2[i] + exam[i];
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        for (int i = 0; i < COHORT; i++) {
+            bh.consume(gradeDetermination(total[i], asn1[i], asn2[i], exam[i]));
+        }
+    }
+
+    @Benchmark
+    public void engine(Blackhole bh) {
+        for (int i = 0; i < COHORT; i++) {
+            bh.consume(GradeEngine.grade(total[i], asn1[i], asn2[i], exam[i]));
+        }
+    }
+
+    /*
+     * The grade determination method as it was before GradeEngine
+     */
+    private static String gradeDetermination(Integer total, Integer asn1, Integer asn2, Integer exam){
+        String grade = "?";
+        if (total>=85) {
+            grade = "HD";
+        }else if (total>=75 && total<85){
+            grade = "D";
+        }else if (total>=65 && total<75){
+            grade = "C";
+        }else if(total>=50 && total<65){
+            grade = "P";
+        }else if(total<50){
+            if (total>=45 && asn1<10 && asn2>=15 && exam>=25) {
+                grade = "SA";
+            }else if (total>=45 && asn2<15 && asn1>=10 && exam>=25) {
+                grade = "SA";
+            }else if (total>=45 && asn1>10 && asn2<15 && exam<25) {
+                grade = "SE";
+            }else if (asn1==0 && asn2==0 && exam==0){
+                grade = "AF";
+            }else{
+                grade = "F";
+            }
+        }
+        return grade;
+    }
+
+}
@@ -0,0 +1,86 @@
+package markassistancesystem.bench;
+
+import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.MarkAssistanceSystemModule;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import markassistancesystem.model.QueryException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the mapping of result sets to student records. The scan benchmark
+ * reads every row of the marks without mapping it, so the difference between
+ * it and the others is the cost of createStudent() or of the columnar store.
+ *
+ * @author Ziheng Cong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    private Cohort cohort;
+    private MarkAssistanceSystemModule msm;
+    private Connection connection;
+    private PreparedStatement scan;
+
+    @Setup
+    public void setup() throws SQLException, ConnectionException {
+        cohort = Cohort.create("mapping" + size, size);
+        msm = cohort.connect();
+        connection = cohort.open();
+        scan = connection.prepareStatement("SELECT * FROM Marks");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException, ConnectionException {
+        connection.close();
+        msm.disconnect();
+        cohort.drop();
+    }
+
+    @Benchmark
+    public int scan() throws SQLException {
+        int n = 0;
+        try (ResultSet rs = scan.executeQuery()) {
+            while (rs.next()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int students(Blackhole bh) throws QueryException {
+        return msm.selectEach(Query.ALL, bh::consume);
+    }
+
+    @Benchmark
+    public Object columns() throws QueryException {
+        return msm.selectColumns(Query.ALL);
+    }
+
+}
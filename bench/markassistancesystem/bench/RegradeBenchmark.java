@@ -0,0 +1,71 @@
+package markassistancesystem.bench;
+
+import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.MarkAssistanceSystemModule;
+import markassistancesystem.model.MarkAssistanceSystemModule.Regrade;
+import markassistancesystem.model.QueryException;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures recalculating every grade in each regrade mode at several cohort
+ * sizes. Stored grades are reset before each regrade, so every mode has the
+ * same records to change.
+ *
+ * @author Ziheng Cong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RegradeBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"ROW_BY_ROW", "BATCH", "SERVER_SIDE", "INCREMENTAL", "PARALLEL"})
+    public Regrade mode;
+
+    private Cohort cohort;
+    private MarkAssistanceSystemModule msm;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException, ConnectionException {
+        cohort = Cohort.create("regrade" + size, size);
+        msm = cohort.connect();
+        msm.setRegrade(mode);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() throws SQLException {
+        cohort.scrambleGrades();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws ConnectionException {
+        msm.disconnect();
+        cohort.drop();
+    }
+
+    @Benchmark
+    public Object regradeAll() throws QueryException {
+        return msm.regradeAll();
+    }
+
+}
@@ -0,0 +1,80 @@
+package markassistancesystem.bench;
+
+import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.MarkAssistanceSystemModule;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import markassistancesystem.model.QueryException;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each selection supported by the marks manager over a synthetic
+ * cohort, from executing the query to the list of student records.
+ *
+ * @author Ziheng Cong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectBenchmark {
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    @Param({"ALL", "RANGE", "GRADE", "TOLERANCE", "PAGE"})
+    public Query query;
+
+    private Cohort cohort;
+    private MarkAssistanceSystemModule msm;
+    private String[] parameters;
+
+    @Setup
+    public void setup() throws SQLException, ConnectionException {
+        cohort = Cohort.create("select" + size, size);
+        msm = cohort.connect();
+        switch (query) {
+            case RANGE:
+                parameters = new String[] {"50", "64"};
+                break;
+            case GRADE:
+                parameters = new String[] {"C"};
+                break;
+            case TOLERANCE:
+                parameters = new String[] {"2"};
+                break;
+            case PAGE:
+                parameters = new String[] {String.valueOf(size / 2), "100"};
+                break;
+            default:
+                parameters = new String[0];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws ConnectionException {
+        msm.disconnect();
+        cohort.drop();
+    }
+
+    @Benchmark
+    public Object select() throws QueryException {
+        return msm.select(query, parameters);
+    }
+
+}
@@ -0,0 +1,292 @@
+package markassistancesystem;
+
+import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.Grade;
+import markassistancesystem.model.ImportReport;
+import markassistancesystem.model.MarkAssistanceSystemModule;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import markassistancesystem.model.MarkAssistanceSystemModule.Regrade;
+import markassistancesystem.model.MarkChangeLog;
+import markassistancesystem.model.MarkExporter;
+import markassistancesystem.model.MarkImporter;
+import markassistancesystem.model.QueryException;
+import markassistancesystem.model.RegradeSummary;
+import markassistancesystem.model.TotalsReport;
+import markassistancesystem.view.ConsoleView;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MarkAssistanceBatch is the command line entry point of the mark assistance
+ * system, for work that needs no user interface:
+ * <pre>
+ * regrade-all [--mode ROW_BY_ROW|BATCH|SERVER_SIDE|INCREMENTAL|PARALLEL] [--parallelism N]
+ * export [--format csv|jsonl] [--gzip] FILE ALL|RANGE|GRADE|TOLERANCE [PARAMETER...]
+ * import [--batch-size N] [--commit-interval N] FILE
+ * near-boundary K
+ * changes [--from SEQUENCE]
+ * verify-totals
+ * </pre>
+ * Output is written by a ConsoleView. The application runs headless and no
+ * AWT or Swing class is used, and the database is only connected to once
+ * the command line has been understood. The changes command lists the change
+ * log named by -Dmarks.changeLog and does not connect to the database. The database is chosen with the same
+ * system properties as the application. The exit status is 0 on success, 1
+ * if the work fails, verify-totals finds an inconsistent record or import
+ * rejects a row, and 2 if the command line is not understood.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkAssistanceBatch {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: regrade-all [--mode ROW_BY_ROW|BATCH|SERVER_SIDE|INCREMENTAL|PARALLEL] [--parallelism N]",
+            "       export [--format csv|jsonl] [--gzip] FILE ALL|RANGE|GRADE|TOLERANCE [PARAMETER...]",
+            "       import [--batch-size N] [--commit-interval N] FILE",
+            "       near-boundary K",
+            "       changes [--from SEQUENCE]",
+            "       verify-totals",
+            "import exits with status 1 if any row is rejected; the other rows are still imported.");
+
+    // The options of each command that take a value; other options are flags
+    private static final Map<String, List<String>> VALUE_OPTIONS = new HashMap<>();
+
+    static {
+        VALUE_OPTIONS.put("regrade-all", Arrays.asList("--mode", "--parallelism"));
+        VALUE_OPTIONS.put("export", Arrays.asList("--format"));
+        VALUE_OPTIONS.put("import", Arrays.asList("--batch-size", "--commit-interval"));
+        VALUE_OPTIONS.put("near-boundary", Arrays.<String>asList());
+        VALUE_OPTIONS.put("changes", Arrays.asList("--from"));
+        VALUE_OPTIONS.put("verify-totals", Arrays.<String>asList());
+    }
+
+    private final ConsoleView view = new ConsoleView();
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> operands = new ArrayList<>();
+    private MarkAssistanceSystemModule msm;
+
+    public static void main(String args[]) {
+        // Make sure nothing initialises a display
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0 || !VALUE_OPTIONS.containsKey(args[0])) {
+            usage();
+        }
+        MarkAssistanceBatch batch = new MarkAssistanceBatch();
+        int status;
+        try {
+            batch.parse(args);
+            status = batch.run(args[0]);
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            status = 2;
+        } finally {
+            batch.disconnect();
+        }
+        System.exit(status);
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    /*
+     * Separate the options of a command from its operands
+     */
+    private void parse(String[] args) {
+        List<String> valued = VALUE_OPTIONS.get(args[0]);
+        int i = 1;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            if (valued.contains(args[i])) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                options.put(args[i], args[++i]);
+            } else {
+                options.put(args[i], "");
+            }
+        }
+        operands.addAll(Arrays.asList(args).subList(i, args.length));
+    }
+
+    /*
+     * Run a command. Arguments are checked before the model is created, so a
+     * command that is not understood never connects to the database.
+     */
+    private int run(String command) {
+        try {
+            switch (command) {
+                case "regrade-all":
+                    return regradeAll();
+                case "export":
+                    return export();
+                case "import":
+                    return importMarks();
+                case "changes":
+                    return changes();
+                case "verify-totals":
+                    return verifyTotals();
+                default:
+                    return nearBoundary();
+            }
+        } catch (QueryException | IOException e) {
+            view.displayError(e.getMessage());
+            return 1;
+        }
+    }
+
+    private int regradeAll() throws QueryException {
+        expect(0, 0, "--mode", "--parallelism");
+        Regrade mode = options.containsKey("--mode")
+                ? Regrade.valueOf(options.get("--mode").toUpperCase()) : null;
+        int parallelism = options.containsKey("--parallelism")
+                ? Integer.parseInt(options.get("--parallelism")) : 0;
+        if (options.containsKey("--parallelism") && parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        MarkAssistanceSystemModule m = model();
+        if (mode != null) {
+            m.setRegrade(mode);
+        }
+        if (parallelism > 0) {
+            m.setParallelism(parallelism);
+        }
+        RegradeSummary summary = m.regradeAll();
+        view.displayMessage("All grades calculated: " + summary.getRowsScanned() + " read, "
+                + summary.getRowsUpdated() + " written"
+                + (summary.getRowsChanged() < 0 ? "" : ", " + summary.getRowsChanged() + " changed"));
+        for (Map.Entry<String, Integer> t : summary.getTransitions().entrySet()) {
+            view.displayMessage(t.getKey() + ": " + t.getValue());
+        }
+        return 0;
+    }
+
+    private int export() throws QueryException, IOException {
+        expect(2, Integer.MAX_VALUE, "--format", "--gzip");
+        MarkExporter.Format format = MarkExporter.Format.valueOf(
+                options.getOrDefault("--format", "csv").toUpperCase());
+        Query q = Query.valueOf(operands.get(1).toUpperCase());
+        String[] p = operands.subList(2, operands.size()).toArray(new String[0]);
+        // only the selections in the usage, with their parameters
+        MarkExporter.check(q, p);
+        int n = new MarkExporter(model()).export(Paths.get(operands.get(0)), format,
+                options.containsKey("--gzip"), q, p);
+        view.displayMessage(n + " records exported");
+        return 0;
+    }
+
+    private int importMarks() throws QueryException, IOException {
+        expect(1, 1, "--batch-size", "--commit-interval");
+        int batchSize = options.containsKey("--batch-size")
+                ? Integer.parseInt(options.get("--batch-size")) : 0;
+        if (options.containsKey("--batch-size") && batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        int commitInterval = options.containsKey("--commit-interval")
+                ? Integer.parseInt(options.get("--commit-interval")) : 0;
+        if (options.containsKey("--commit-interval") && commitInterval < 1) {
+            throw new IllegalArgumentException("Commit interval must be positive");
+        }
+        MarkImporter importer = new MarkImporter(model());
+        if (batchSize > 0) {
+            importer.setBatchSize(batchSize);
+        }
+        if (commitInterval > 0) {
+            importer.setCommitInterval(commitInterval);
+        }
+        ImportReport report = importer.importCsv(Paths.get(operands.get(0)));
+        view.displayMessage(report.getRowsRead() + " rows read, " + report.getRowsInserted() + " inserted, "
+                + report.getRowsUpdated() + " updated, " + report.getRowsRejected() + " rejected in "
+                + report.getElapsedMillis() + " ms (" + Math.round(report.getRowsPerSecond()) + " rows/s)");
+        for (ImportReport.Reject r : report.getRejects()) {
+            view.displayError("line " + r.getLine() + ": " + r.getReason());
+        }
+        return report.getRowsRejected() == 0 ? 0 : 1;
+    }
+
+    private int nearBoundary() throws QueryException {
+        expect(1, 1);
+        int k = Integer.parseInt(operands.get(0));
+        if (k < 0) {
+            throw new IllegalArgumentException("Window must not be negative");
+        }
+        Map<Grade, Integer> counts = new EnumMap<>(Grade.class);
+        int n = model().selectNearBoundary(k, nb -> {
+            view.displayRecord(nb);
+            counts.merge(nb.getBoundaryGrade(), 1, Integer::sum);
+        });
+        view.displayMessage(n + " records within " + k + " marks of a boundary");
+        for (Map.Entry<Grade, Integer> c : counts.entrySet()) {
+            view.displayMessage(c.getKey() + ": " + c.getValue());
+        }
+        return 0;
+    }
+
+    private int changes() throws IOException {
+        expect(0, 0, "--from");
+        long from = Long.parseLong(options.getOrDefault("--from", "0"));
+        String file = System.getProperty("marks.changeLog");
+        if (file == null) {
+            view.displayError("No change log; name one with -Dmarks.changeLog");
+            return 1;
+        }
+        int[] n = { 0 };
+        MarkChangeLog.replay(Paths.get(file), from, e -> {
+            view.displayRecord(e);
+            n[0]++;
+        });
+        view.displayMessage(n[0] + " changes");
+        return 0;
+    }
+
+    private int verifyTotals() throws QueryException {
+        expect(0, 0);
+        TotalsReport report = model().verifyTotals();
+        view.displayMessage(report.getRows() + " records verified, " + report.getInconsistentTotals()
+                + " inconsistent totals, " + report.getInconsistentGrades() + " inconsistent grades");
+        if (report.isConsistent()) {
+            return 0;
+        }
+        view.displayError("First inconsistent record: " + report.getFirstInconsistent());
+        return 1;
+    }
+
+    /*
+     * Check the number of operands and that only the given options are used
+     */
+    private void expect(int min, int max, String... allowed) {
+        if (operands.size() < min || operands.size() > max
+                || !Arrays.asList(allowed).containsAll(options.keySet())) {
+            throw new IllegalArgumentException("Unexpected arguments");
+        }
+    }
+
+    /*
+     * Create and connect the model the first time it is needed
+     */
+    private MarkAssistanceSystemModule model() {
+        if (msm == null) {
+            msm = MarkAssistanceSystem.createModel();
+        }
+        return msm;
+    }
+
+    private void disconnect() {
+        if (msm == null) {
+            return;
+        }
+        try {
+            msm.disconnect();
+        } catch (ConnectionException e) {
+            view.displayError(e.getMessage());
+        }
+    }
+
+}
@@ -2,8 +2,22 @@ package markassistancesystem;
 
 import markassistancesystem.presenter.StudentPresenter;
 import markassistancesystem.view.StudentView;
+import markassistancesystem.model.CachingQuery;
 import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.ConnectionMode;
+import markassistancesystem.model.IQuery;
+import markassistancesystem.model.InstrumentedQuery;
 import markassistancesystem.model.MarkAssistanceSystemModule;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import markassistancesystem.model.MarkAssistanceSystemModule.TotalMode;
+import markassistancesystem.model.MarkChangeLog;
+import markassistancesystem.model.MarkEventBus;
+import markassistancesystem.model.MarkStatistics;
+import markassistancesystem.model.Student;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 /**
  * MarkAssistanceSystem is the application class that refactor to MVP 
@@ -13,10 +27,97 @@ import markassistancesystem.model.MarkAssistanceSystemModule;
  */
 public class MarkAssistanceSystem {
 
+    // The number of changes that can be published ahead of the change log
+    private static final int CHANGE_BUFFER = 1024;
+
     public static void main(String args[]) {
+        // Run a batch command without a user interface if one is given
+        if (args.length > 0) {
+            MarkAssistanceBatch.main(args);
+            return;
+        }
         // Create the model. Exit the application if connection be made to the 
         // mark assistance system.
+        MarkAssistanceSystemModule msm = createModel();
+        // Answer selections from an in-memory copy of the marks if requested
+        // with -Dmarks.cache=true
+        IQuery<Query, Student> queries = msm;
+        if (Boolean.getBoolean("marks.cache")) {
+            queries = new CachingQuery(msm);
+        }
+        // Maintain the distribution of the marks from the commands made; it is
+        // only loaded once it is first shown
+        MarkStatistics statistics = new MarkStatistics(queries, msm, 5000);
+        queries = statistics;
+        // Record the duration of every query if requested with
+        // -Dmarks.metrics=true, publishing the metrics over JMX and logging
+        // them every -Dmarks.metrics.logInterval seconds (default 60, 0 for never)
+        if (Boolean.getBoolean("marks.metrics")) {
+            InstrumentedQuery iq = new InstrumentedQuery(queries, msm.getPool());
+            iq.register();
+            long interval = Long.getLong("marks.metrics.logInterval", 60);
+            if (interval > 0) {
+                iq.startLogging(interval, TimeUnit.SECONDS);
+            }
+            queries = iq;
+        }
+        // Create the presenter and view and inject their dependencies. Note 
+        // there is a circular dependency beetween the presenter and the view, so
+        // an explicit binding method (bind()) is required.
+        StudentPresenter pp = new StudentPresenter(queries, msm);
+        pp.setStatistics(statistics);
+        StudentView pv = new StudentView(pp);
+        pp.bind(pv);
+        // Start the application
+        pv.setVisible(true);
+    }
+
+    /*
+     * Create the model and connect it to the marks, exiting the application
+     * if the settings are invalid or the connection cannot be made.
+     */
+    static MarkAssistanceSystemModule createModel() {
         MarkAssistanceSystemModule msm = new MarkAssistanceSystemModule();
+        // Reach the marks as requested with -Dmarks.mode=network|embedded|memory,
+        // sizing the embedded engine with -Dmarks.pageCacheSize (pages) and
+        // -Dmarks.pageSize (bytes), and keep totals consistent as requested
+        // with -Dmarks.totals=client|derived|derived_grade
+        try {
+            msm.setConnectionMode(ConnectionMode.valueOf(
+                    System.getProperty("marks.mode", "network").toUpperCase()));
+            msm.setPageCacheSize(Integer.getInteger("marks.pageCacheSize", 0));
+            msm.setPageSize(Integer.getInteger("marks.pageSize", 0));
+            String totals = System.getProperty("marks.totals");
+            if (totals != null) {
+                msm.setTotalMode(TotalMode.valueOf(totals.toUpperCase()));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println( e.getMessage());
+            System.exit(1);
+        }
+        // Record every change in the log named by -Dmarks.changeLog,
+        // numbering changes on from the last change already in it, forcing
+        // it to disk as requested with -Dmarks.changeLogSync=close|batch|append;
+        // the log is closed, and forced, when the model is disconnected
+        String changeLog = System.getProperty("marks.changeLog");
+        if (changeLog != null) {
+            try {
+                MarkChangeLog.Sync sync = MarkChangeLog.Sync.valueOf(
+                        System.getProperty("marks.changeLogSync", "close").toUpperCase());
+                MarkChangeLog log = new MarkChangeLog(Paths.get(changeLog));
+                log.setSync(sync);
+                MarkEventBus bus = new MarkEventBus(CHANGE_BUFFER, log.getLastSequence() + 1);
+                bus.subscribe("change-log", log::append, log::endBatch);
+                bus.closeWith(log);
+                msm.setEventBus(bus);
+            } catch (IllegalArgumentException e) {
+                System.err.println( e.getMessage());
+                System.exit(1);
+            } catch (IOException e) {
+                System.err.println( "Unable to open change log: " + e.getMessage());
+                System.exit(1);
+            }
+        }
         try {
             msm.connect();
             msm.initialise();
@@ -25,14 +126,7 @@ public class MarkAssistanceSystem {
             e.getCause().printStackTrace();
             System.exit(1);
         }
-        // Create the presenter and view and inject their dependencies. Note 
-        // there is a circular dependency beetween the presenter and the view, so
-        // an explicit binding method (bind()) is required.
-        StudentPresenter pp = new StudentPresenter(msm, msm);
-        StudentView pv = new StudentView(pp);
-        pp.bind(pv);
-        // Start the application
-        pv.setVisible(true);
+        return msm;
     }
-    
+
 }
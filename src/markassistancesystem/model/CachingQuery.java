@@ -0,0 +1,453 @@
+package markassistancesystem.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Changes;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * CachingQuery is an IQuery decorator that holds the marks in memory and
+ * answers the ALL, RANGE, GRADE and TOLERANCE selections from indexes instead
+ * of querying the database. The records are indexed by total mark (sorted), by
+ * grade (each grade sorted by total mark) and by student ID (hashed).
+ * <p>
+ * UPDATE and UPDATE_CURRENT_GREADE commands are written through to the module
+ * and then applied to the indexes; UPDATE_ALL_GRADE reloads the indexes from
+ * the regraded records. Changes made by other clients are detected by
+ * comparing the module's change count of the marks with the one read when the
+ * indexes were built, at most once every check interval. A command is only
+ * applied if the change count shows that no other client changed the marks
+ * since then; otherwise the indexes are reloaded. Other queries are passed to
+ * the module unchanged.
+ *
+ * @author Ziheng Cong
+ */
+public class CachingQuery implements IQuery<Query, Student> {
+
+    // Default time between checks for changes made by other clients
+    private static final long DEFAULT_CHECK_INTERVAL = 5000;
+
+    private final MarkAssistanceSystemModule module;
+    private final long checkInterval;
+
+    // The indexes, which are guarded by lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Map<String, Student>> byTotal = new TreeMap<>();
+    private final Map<String, TreeMap<Integer, Map<String, Student>>> byGrade = new HashMap<>();
+    private final Map<String, Student> byId = new HashMap<>();
+    private boolean loaded = false;
+    private long version;
+    private volatile long lastCheck;
+
+    /**
+     * Create a cache over a module, checking for changes made by other clients
+     * every five seconds.
+     * @param module the module being cached
+     */
+    public CachingQuery(MarkAssistanceSystemModule module) {
+        this(module, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * Create a cache over a module.
+     * @param module the module being cached
+     * @param checkInterval the minimum time between checks for changes made by
+     * other clients, in milliseconds
+     */
+    public CachingQuery(MarkAssistanceSystemModule module, long checkInterval) {
+        this.module = module;
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Discard the indexes, so that they are reloaded by the next selection
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // IQuery implementation
+
+    /**
+     * Perform a selection, from memory where the selection is indexed.
+     * @param q the selection as specified in the Query enum
+     * @param p parameters for the query specified as a varags of type Object
+     * @return a List of Student objects that match query specification
+     * @throws QueryException 
+     */
+    @Override
+    public List<Student> select(Query q, String... p) throws QueryException {
+        switch ( q ) {
+            case ALL:
+            case RANGE:
+            case GRADE:
+            case TOLERANCE:
+                List<Student> results = new ArrayList<>();
+                selectEach(q, results::add, p);
+                return results;
+            case UPDATE_ALL_GRADE:
+                long v = module.getChangeCount();
+                List<Student> regraded = module.select(q, p);
+                reload(regraded, v);
+                return regraded;
+        }
+        return module.select(q, p);
+    }
+
+    /**
+     * Perform a selection, passing each matching record to a consumer.
+     * @param q the selection as specified in the Query enum
+     * @param c the consumer for the matching records
+     * @param p parameters for the query specified as a varags of type Object
+     * @return the number of records passed to the consumer
+     * @throws QueryException 
+     */
+    @Override
+    public int selectEach(Query q, Consumer<? super Student> c, String... p) throws QueryException {
+        switch ( q ) {
+            case ALL:
+            case RANGE:
+            case GRADE:
+            case TOLERANCE:
+                List<Student> results = lookup(q, p);
+                results.forEach(c);
+                return results.size();
+            case UPDATE_ALL_GRADE:
+                List<Student> regraded = select(q, p);
+                regraded.forEach(c);
+                return regraded.size();
+        }
+        return module.selectEach(q, c, p);
+    }
+
+    /**
+     * Count the records that a selection would return, from memory where the
+     * selection is indexed.
+     * @param q the selection as specified in the Query enum
+     * @param p parameters for the query specified as a varags of type Object
+     * @return the number of matching records
+     * @throws QueryException 
+     */
+    @Override
+    public int count(Query q, String... p) throws QueryException {
+        switch ( q ) {
+            case ALL:
+            case RANGE:
+            case GRADE:
+            case TOLERANCE:
+                return lookup(q, p).size();
+        }
+        return module.count(q, p);
+    }
+
+    /**
+     * Perform a command on the module and apply it to the indexes. If the
+     * record has been updated by another client, the record now stored
+     * replaces the one in the indexes and the next selection checks for
+     * other changes.
+     * @param q the command as specified in the Query enum
+     * @param p a Student object containing the data for the command
+     * @return the number of records impacted on by the command
+     * @throws QueryException 
+     */
+    @Override
+    public int command(Query q, Student p) throws QueryException {
+        int n;
+        try {
+            n = module.command(q, p);
+        } catch (ConcurrentUpdateException e) {
+            replace(e.getCurrent());
+            throw e;
+        }
+        if (n > 0) {
+            apply(q, p);
+        }
+        return n;
+    }
+
+    /**
+     * Perform a command on each of a collection of records on the module and
+     * apply the commands that wrote a record to the indexes.
+     * @param q the command as specified in the Query enum
+     * @param ps the records
+     * @return the outcome for each record, as given by the module
+     * @throws QueryException 
+     */
+    @Override
+    public int[] commandAll(Query q, Collection<? extends Student> ps) throws QueryException {
+        int[] outcomes;
+        try {
+            outcomes = module.commandAll(q, ps);
+        } catch (QueryException e) {
+            // earlier batches may have been written
+            invalidate();
+            throw e;
+        }
+        List<Student> written = new ArrayList<>();
+        int i = 0;
+        for (Student p : ps) {
+            if (outcomes[i++] > 0) {
+                written.add(p);
+            }
+        }
+        if (!written.isEmpty()) {
+            apply(q, written);
+        }
+        return outcomes;
+    }
+
+    @Override
+    public void cancel() {
+        module.cancel();
+    }
+
+    // Helper methods
+
+    /*
+     * Answer an indexed selection from memory, loading or reloading the
+     * indexes first if necessary.
+     */
+    private List<Student> lookup(Query q, String... p) throws QueryException {
+        refresh();
+        lock.readLock().lock();
+        try {
+            switch ( q ) {
+                case RANGE:
+                    return collect(byTotal.subMap(Integer.parseInt(p[0]), true, Integer.parseInt(p[1]), true));
+                case GRADE:
+                    TreeMap<Integer, Map<String, Student>> bucket = byGrade.get(p[0].trim());
+                    return bucket == null ? new ArrayList<>() : collect(bucket);
+                case TOLERANCE:
+                    int t = Integer.parseInt(p[0]);
+                    List<Student> results = new ArrayList<>();
+                    for (int boundary : GradeEngine.BOUNDARIES) {
+                        Map<String, Student> m = byTotal.get(boundary - t);
+                        if (m != null) {
+                            results.addAll(m.values());
+                        }
+                    }
+                    return results;
+                default:
+                    return new ArrayList<>(byId.values());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Load the indexes if they have not been loaded, or reload them if the
+     * marks have been changed by another client since they were loaded.
+     */
+    private void refresh() throws QueryException {
+        long now = System.currentTimeMillis();
+        boolean stale;
+        lock.readLock().lock();
+        try {
+            stale = !loaded;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!stale && now - lastCheck < checkInterval) {
+            return;
+        }
+        long v = module.getChangeCount();
+        lastCheck = now;
+        lock.readLock().lock();
+        try {
+            stale = !loaded || v != version;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (stale) {
+            List<Student> all = new ArrayList<>();
+            module.selectEach(Query.ALL, all::add);
+            lock.writeLock().lock();
+            try {
+                rebuild(all);
+                version = v;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /*
+     * Replace the indexes with the records of a complete regrade, given the
+     * change count read before it. If other clients changed the marks during
+     * the regrade the earlier count is kept, so the next check reloads them.
+     */
+    private void reload(List<Student> all, long v) {
+        Changes c = module.lastChanges();
+        lock.writeLock().lock();
+        try {
+            rebuild(all);
+            version = c.follow(v) ? c.last() : v;
+            lastCheck = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Apply a successful command to the indexes. The changes it committed
+     * must follow the change count of the indexes directly; if another
+     * client's change came between them, the indexes are reloaded instead.
+     */
+    private void apply(Query q, Student p) {
+        apply(q, Collections.singletonList(p));
+    }
+
+    private void apply(Query q, List<Student> ps) {
+        Changes c = module.lastChanges();
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            if (!c.follow(version)) {
+                loaded = false;
+                return;
+            }
+            for (Student p : ps) {
+                if (!applyOne(q, p)) {
+                    loaded = false;
+                    return;
+                }
+            }
+            version = c.last();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Replace a record in the indexes with the one now stored, which another
+     * client has written. That client may have changed other records too, so
+     * the change count is checked by the next selection.
+     */
+    private void replace(Student current) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                Student old = byId.get(current.getStudentID());
+                if (old != null) {
+                    remove(old);
+                }
+                add(current);
+            }
+            lastCheck = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Apply one record written by a command to the indexes, returning false
+     * if the effect of the command is not known
+     */
+    private boolean applyOne(Query q, Student p) {
+        Student old = byId.get(p.getStudentID());
+        switch ( q ) {
+            case UPDATE:
+                // the write has moved the record on a version, and the
+                // database may have derived its total
+                if (old != null) {
+                    remove(old);
+                }
+                p = module.derive(p);
+                add(new Student(p.getStudentID(), p.getAssignment1(), p.getAssignment2(), p.getExam(),
+                        p.getTotal(), p.getGrade(), old == null ? Student.NO_VERSION : old.getVersion() + 1));
+                return true;
+            case UPDATE_CURRENT_GREADE:
+                // only the grade is written, calculated from the marks given;
+                // a grade that changes moves the record on a version
+                if (old == null) {
+                    return false;
+                }
+                String grade = MarkAssistanceSystemModule.gradeDetermination(
+                        p.getTotal(), p.getAssignment1(), p.getAssignment2(), p.getExam());
+                boolean regraded = !grade.equals(gradeOf(old));
+                remove(old);
+                add(new Student(old.getStudentID(), old.getAssignment1(), old.getAssignment2(),
+                        old.getExam(), old.getTotal(), grade,
+                        regraded && old.getVersion() != Student.NO_VERSION ? old.getVersion() + 1 : old.getVersion()));
+                return true;
+            default:
+                // the effect of other commands is not known
+                return false;
+        }
+    }
+
+    private void rebuild(Collection<Student> all) {
+        byTotal.clear();
+        byGrade.clear();
+        byId.clear();
+        for (Student s : all) {
+            add(s);
+        }
+        loaded = true;
+    }
+
+    private void add(Student s) {
+        byId.put(s.getStudentID(), s);
+        index(byTotal, s).put(s.getStudentID(), s);
+        index(byGrade.computeIfAbsent(gradeOf(s), g -> new TreeMap<>()), s).put(s.getStudentID(), s);
+    }
+
+    private void remove(Student s) {
+        byId.remove(s.getStudentID());
+        unindex(byTotal, s);
+        TreeMap<Integer, Map<String, Student>> bucket = byGrade.get(gradeOf(s));
+        if (bucket != null) {
+            unindex(bucket, s);
+            if (bucket.isEmpty()) {
+                byGrade.remove(gradeOf(s));
+            }
+        }
+    }
+
+    private static Map<String, Student> index(TreeMap<Integer, Map<String, Student>> m, Student s) {
+        return m.computeIfAbsent(s.getTotal(), t -> new LinkedHashMap<>());
+    }
+
+    private static void unindex(TreeMap<Integer, Map<String, Student>> m, Student s) {
+        Map<String, Student> students = m.get(s.getTotal());
+        if (students != null) {
+            students.remove(s.getStudentID());
+            if (students.isEmpty()) {
+                m.remove(s.getTotal());
+            }
+        }
+    }
+
+    private static List<Student> collect(NavigableMap<Integer, Map<String, Student>> m) {
+        List<Student> results = new ArrayList<>();
+        for (Map<String, Student> students : m.values()) {
+            results.addAll(students.values());
+        }
+        return results;
+    }
+
+    // fixed width grade columns are padded, so index trimmed grades
+    private static String gradeOf(Student s) {
+        return s.getGrade() == null ? "" : s.getGrade().trim();
+    }
+
+}
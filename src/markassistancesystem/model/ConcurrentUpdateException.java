@@ -0,0 +1,25 @@
+package markassistancesystem.model;
+
+/**
+ * Thrown when a record cannot be updated because another user has updated it
+ * since it was read. The record as it is now stored is attached, so that the
+ * update can be reconsidered against it.
+ *
+ * @author Ziheng Cong
+ */
+public class ConcurrentUpdateException extends QueryException {
+
+    private final Student current;
+
+    public ConcurrentUpdateException(String message, Student current) {
+        super(message, null);
+        this.current = current;
+    }
+
+    /**
+     * @return the record as it is now stored
+     */
+    public Student getCurrent() {
+        return current;
+    }
+}
@@ -0,0 +1,50 @@
+package markassistancesystem.model;
+
+/**
+ * The ConnectionMode enum specifies how the marks database is reached. The
+ * network mode talks to a Derby network server over TCP; the embedded modes
+ * run the Derby engine inside the application, so queries avoid the network
+ * hop and the serialisation of results.
+ *
+ * @author Ziheng Cong
+ */
+public enum ConnectionMode {
+    // via a Derby network server on the local machine
+    NETWORK,
+    // a database on disk opened by the embedded engine, created if missing
+    EMBEDDED,
+    // a database held in memory by the embedded engine, lost when the
+    // application exits
+    MEMORY;
+
+    /**
+     * @param database the name of the database
+     * @return the JDBC url of the database in this mode
+     */
+    public String url(String database) {
+        switch (this) {
+            case EMBEDDED:
+                return "jdbc:derby:" + database + ";create=true";
+            case MEMORY:
+                return "jdbc:derby:memory:" + database + ";create=true";
+            default:
+                return "jdbc:derby://localhost:1527/" + database;
+        }
+    }
+
+    /**
+     * @param database the name of the database
+     * @return the JDBC url that shuts the database down in this mode, or null
+     * if the application does not own the database engine
+     */
+    public String shutdownUrl(String database) {
+        return this == EMBEDDED ? "jdbc:derby:" + database + ";shutdown=true" : null;
+    }
+
+    /**
+     * @return true if the database engine runs inside the application
+     */
+    public boolean isEmbedded() {
+        return this != NETWORK;
+    }
+}
@@ -0,0 +1,316 @@
+package markassistancesystem.model;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.EnumMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * ConnectionPool manages a bounded set of connections to the marks. A caller
+ * leases a connection with acquire(), waiting up to the acquire timeout if
+ * every connection is in use, and returns it by closing the lease. Each
+ * connection caches its own prepared statements, so callers on different
+ * threads never share a statement. Usage metrics are available via the getters.
+ *
+ * @author Ziheng Cong
+ */
+public class ConnectionPool implements ConnectionPoolMBean {
+
+    // Connection details
+    private final String url;
+    private final String username;
+    private final String password;
+    private final EnumMap<Query, String> sqlCommands;
+
+    private final int maxSize;
+    private final long timeoutMillis;
+
+    // Idle connections are reused most recently released first, so that the
+    // connections with warm statement caches are preferred
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    // Metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LatencyHistogram waits = new LatencyHistogram();
+
+    /**
+     * Create a pool. No connections are opened until they are needed.
+     *
+     * @param url the JDBC url of the marks
+     * @param username the user name for the marks
+     * @param password the password for the marks
+     * @param sqlCommands the SQL for each query
+     * @param maxSize the maximum number of connections
+     * @param timeoutMillis how long acquire() waits for a connection
+     */
+    ConnectionPool(String url, String username, String password,
+            EnumMap<Query, String> sqlCommands, int maxSize, long timeoutMillis) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.sqlCommands = sqlCommands;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+        permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Lease a connection, opening a new one if none are idle and the pool is
+     * not full. The connection is attached to the task being run by the
+     * calling thread, if any, until it is released.
+     * @return the leased connection, which must be closed after use
+     * @throws QueryException if no connection becomes available within the
+     * acquire timeout, a connection cannot be opened or the task being run
+     * by the calling thread has been cancelled
+     */
+    PooledConnection acquire() throws QueryException {
+        QueryTask task = QueryTask.current();
+        if (task != null && task.isCancelled()) {
+            throw (new QueryException("Query cancelled", null));
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw (new QueryException("Unable to acquire a connection",
+                        new SQLTimeoutException("No connection available after " + timeoutMillis + " ms")));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (new QueryException("Interrupted while acquiring a connection", e));
+        }
+        recordWait(System.nanoTime() - start);
+        PooledConnection pc = idle.pollFirst();
+        if (pc == null) {
+            try {
+                pc = open();
+            } catch (SQLException e) {
+                permits.release();
+                throw (new QueryException("Unable to open data source", e));
+            }
+        }
+        pc.reset(task);
+        leased.add(pc);
+        active.incrementAndGet();
+        return pc;
+    }
+
+    /**
+     * Return a leased connection to the pool. A connection left inside a
+     * transaction is rolled back; a connection that can no longer be used is
+     * discarded.
+     * @param pc the leased connection
+     * @throws QueryException if a connection being discarded cannot be
+     * closed; the connection is returned to the pool all the same
+     */
+    void release(PooledConnection pc) throws QueryException {
+        leased.remove(pc);
+        pc.reset(null);
+        boolean usable;
+        try {
+            if (!pc.getConnection().getAutoCommit()) {
+                pc.getConnection().rollback();
+                pc.getConnection().setAutoCommit(true);
+            }
+            usable = !closed && !pc.getConnection().isClosed();
+        } catch (SQLException e) {
+            usable = false;
+        }
+        try {
+            if (usable) {
+                idle.offerFirst(pc);
+            } else {
+                discard(pc);
+            }
+        } finally {
+            active.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    /**
+     * Cancel the work using every leased connection.
+     */
+    void cancelAll() {
+        for (PooledConnection pc : leased) {
+            pc.cancel();
+        }
+    }
+
+    /**
+     * Open connections until at least n are idle or the pool is full.
+     * @param n the number of connections wanted
+     * @throws SQLException if a connection cannot be opened
+     */
+    void fill(int n) throws SQLException {
+        while (idle.size() < n && opened.get() < maxSize) {
+            idle.offerLast(open());
+        }
+    }
+
+    /**
+     * Close the idle connections. Connections that are leased are closed as
+     * they are released.
+     * @throws SQLException if a connection cannot be closed
+     */
+    void close() throws SQLException {
+        closed = true;
+        SQLException failure = null;
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            try {
+                pc.discard();
+            } catch (SQLException e) {
+                failure = e;
+            } finally {
+                opened.decrementAndGet();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @param q the query
+     * @return the SQL for the query
+     */
+    String getSql(Query q) {
+        return sqlCommands.get(q);
+    }
+
+    // Metrics
+
+    /**
+     * @return the distribution of the times spent waiting for connections
+     */
+    public LatencyHistogram getWaitHistogram() {
+        return waits;
+    }
+
+    @Override
+    public double getWaitPercentileMillis(double percentile) {
+        return waits.getPercentileMillis(percentile);
+    }
+
+    /**
+     * @return the maximum number of connections
+     */
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of connections currently leased
+     */
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of open connections that are not leased
+     */
+    @Override
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of successful acquisitions
+     */
+    @Override
+    public long getAcquisitionCount() {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return the number of acquisitions that timed out
+     */
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return the total time spent waiting for connections, in milliseconds
+     */
+    @Override
+    public double getTotalWaitMillis() {
+        return waitNanos.get() / 1e6;
+    }
+
+    /**
+     * @return the mean time spent waiting for a connection, in milliseconds
+     */
+    @Override
+    public double getAverageWaitMillis() {
+        long n = acquisitions.get();
+        return n == 0 ? 0 : waitNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * @return the longest time spent waiting for a connection, in milliseconds
+     */
+    @Override
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    // Helper methods
+
+    private PooledConnection open() throws SQLException {
+        Connection c = DriverManager.getConnection( url, username, password );
+        try {
+            // Set proper schema
+            c.setSchema("APP");
+        } catch (SQLException e) {
+            c.close();
+            throw e;
+        }
+        opened.incrementAndGet();
+        return new PooledConnection(this, c);
+    }
+
+    private void discard(PooledConnection pc) throws QueryException {
+        try {
+            pc.discard();
+        } catch (SQLException e) {
+            throw (new QueryException("Unable to close pooled connection", e));
+        } finally {
+            opened.decrementAndGet();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        acquisitions.incrementAndGet();
+        waitNanos.addAndGet(nanos);
+        waits.record(nanos);
+        long max;
+        while (nanos > (max = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+}
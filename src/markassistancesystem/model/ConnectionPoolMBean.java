@@ -0,0 +1,21 @@
+package markassistancesystem.model;
+
+/**
+ * ConnectionPoolMBean is the management interface of a ConnectionPool, through
+ * which its usage metrics are published over JMX.
+ *
+ * @author Ziheng Cong
+ */
+public interface ConnectionPoolMBean {
+    int getMaxSize();
+    int getActiveCount();
+    int getIdleCount();
+    long getAcquisitionCount();
+    long getTimeoutCount();
+    double getTotalWaitMillis();
+    double getAverageWaitMillis();
+    double getMaxWaitMillis();
+    // An operation, as it takes a parameter: the given percentile of the
+    // times spent waiting for connections, in milliseconds
+    double getWaitPercentileMillis( double percentile );
+}
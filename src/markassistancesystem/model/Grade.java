@@ -0,0 +1,55 @@
+package markassistancesystem.model;
+
+/**
+ * The Grade enum specifies the grades that can be awarded. Each grade has a
+ * one byte code, so that grades can be stored compactly.
+ *
+ * @author Ziheng Cong
+ */
+public enum Grade {
+    HD, D, C, P, SA, SE, AF, F;
+
+    // Code used for a missing or unrecognised grade
+    public static final byte NONE = -1;
+
+    private static final Grade[] GRADES = values();
+
+    /**
+     * @return the one byte code for this grade
+     */
+    public byte code() {
+        return (byte) ordinal();
+    }
+
+    /**
+     * @param code a grade code
+     * @return the grade with that code, or null for NONE
+     */
+    public static Grade of(byte code) {
+        return code == NONE ? null : GRADES[code];
+    }
+
+    /**
+     * Look up the code of a grade as stored in the marks. Fixed width grade
+     * columns are padded, so surrounding spaces are ignored.
+     * @param grade the grade
+     * @return the code of the grade, or NONE if grade is null or not a grade
+     */
+    public static byte codeOf(String grade) {
+        if (grade == null) {
+            return NONE;
+        }
+        switch (grade.trim()) {
+            case "HD": return HD.code();
+            case "D": return D.code();
+            case "C": return C.code();
+            case "P": return P.code();
+            case "SA": return SA.code();
+            case "SE": return SE.code();
+            case "AF": return AF.code();
+            case "F": return F.code();
+            default: return NONE;
+        }
+    }
+
+}
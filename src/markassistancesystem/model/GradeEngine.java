@@ -0,0 +1,81 @@
+package markassistancesystem.model;
+
+/**
+ * GradeEngine determines the grade of a student from their marks. It works on
+ * primitive ints and returns Grade codes, so no objects are created per call.
+ * The pass bands (HD, D, C, P) are looked up in a table indexed by total mark;
+ * the supplementary rules for totals below 50 (SA, SE, AF, F) are evaluated
+ * as a handful of boolean terms rather than a chain of branches.
+ *
+ * @author Ziheng Cong
+ */
+public final class GradeEngine {
+
+    // The lowest total mark of each pass band, from the highest band down
+    static final int[] BOUNDARIES = { 85, 75, 65, 50 };
+
+    // The pass band for each total mark from 0 to 100, or NONE below 50
+    private static final byte[] BANDS = new byte[101];
+
+    static {
+        for (int total = 0; total < BANDS.length; total++) {
+            if (total >= 85) {
+                BANDS[total] = Grade.HD.code();
+            } else if (total >= 75) {
+                BANDS[total] = Grade.D.code();
+            } else if (total >= 65) {
+                BANDS[total] = Grade.C.code();
+            } else if (total >= 50) {
+                BANDS[total] = Grade.P.code();
+            } else {
+                BANDS[total] = Grade.NONE;
+            }
+        }
+    }
+
+    private static final byte SA = Grade.SA.code();
+    private static final byte SE = Grade.SE.code();
+    private static final byte AF = Grade.AF.code();
+    private static final byte F = Grade.F.code();
+
+    private GradeEngine() {
+    }
+
+    /**
+     * Determine the grade of a student.
+     * @param total total mark
+     * @param asn1 assignment1 mark
+     * @param asn2 assignment2 mark
+     * @param exam exam mark
+     * @return the Grade code of the grade
+     */
+    public static byte grade(int total, int asn1, int asn2, int exam) {
+        if (total > 100) {
+            return Grade.HD.code();
+        }
+        if (total >= 50) {
+            return BANDS[total];
+        }
+        // Supplementary rules. SA needs a passing exam and SE a failing one,
+        // so at most one of them holds; AF applies only if neither does.
+        boolean near = total >= 45;
+        boolean examPassed = exam >= 25;
+        boolean sa = near & examPassed & ((asn1 < 10 & asn2 >= 15) | (asn2 < 15 & asn1 >= 10));
+        boolean se = near & !examPassed & asn1 > 10 & asn2 < 15;
+        boolean absent = (asn1 | asn2 | exam) == 0;
+        return sa ? SA : se ? SE : absent ? AF : F;
+    }
+
+    /**
+     * Determine the grade of a student.
+     * @param total total mark
+     * @param asn1 assignment1 mark
+     * @param asn2 assignment2 mark
+     * @param exam exam mark
+     * @return the grade
+     */
+    public static Grade gradeOf(int total, int asn1, int asn2, int exam) {
+        return Grade.of(grade(total, asn1, asn2, exam));
+    }
+
+}
@@ -1,6 +1,8 @@
 package markassistancesystem.model;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 import markassistancesystem.model.QueryException;
 
 /**
@@ -30,6 +32,41 @@ public interface IQuery<Q, T> {
      */
     public List<T> select(Q q, String... o) throws QueryException;
 
+    /**
+     * Performs a selection query on the underlying data source, passing each
+     * data transfer object to a consumer instead of returning them as a list.
+     * Implementations should read the objects from the data source as they are
+     * consumed, so that memory use does not depend on the size of the result;
+     * this default implementation simply iterates over select().
+     *
+     * @param q The enum value for the selection
+     * @param c The consumer of the data transfer objects
+     * @param o The parameters for the selection specified as a string of
+     * type Object.
+     * @return the number of data transfer objects passed to the consumer
+     * @throws QueryException
+     */
+    default int selectEach(Q q, Consumer<? super T> c, String... o) throws QueryException {
+        List<T> results = select(q, o);
+        results.forEach(c);
+        return results.size();
+    }
+
+    /**
+     * Counts the data transfer objects that a selection query would return.
+     * Implementations should count without reading the objects where they
+     * can; this default implementation counts the result of select().
+     *
+     * @param q The enum value for the selection
+     * @param o The parameters for the selection specified as a string of
+     * type Object.
+     * @return the number of data transfer objects matching the selection
+     * @throws QueryException
+     */
+    default int count(Q q, String... o) throws QueryException {
+        return select(q, o).size();
+    }
+
     /**
      * Performs a command query (insert, delete, update ... )
      *
@@ -40,5 +77,35 @@ public interface IQuery<Q, T> {
      * @throws QueryException
      */
     int command(Q q, T t) throws QueryException;
+
+    /**
+     * Performs a command query for each of a collection of data transfer
+     * objects. Implementations should send the commands to the data source
+     * together rather than one at a time; this default implementation calls
+     * command() for each object in turn.
+     *
+     * @param q The enum value for the command
+     * @param ts The data transfer objects containing the data for the
+     * commands.
+     * @return The number of records in the data source that were impacted by
+     * each command, in the order of the collection
+     * @throws QueryException
+     */
+    default int[] commandAll(Q q, Collection<? extends T> ts) throws QueryException {
+        int[] counts = new int[ts.size()];
+        int i = 0;
+        for (T t : ts) {
+            counts[i++] = command(q, t);
+        }
+        return counts;
+    }
+
+    /**
+     * Cancels the selections and commands that are in progress. The
+     * cancelled calls fail with a QueryException. This default implementation
+     * does nothing.
+     */
+    default void cancel() {
+    }
     
 }
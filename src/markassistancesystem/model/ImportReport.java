@@ -0,0 +1,133 @@
+package markassistancesystem.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A data container describing the outcome of importing marks from a file. No
+ * setters are provided, as attributes are read-only.
+ *
+ * @author Ziheng Cong
+ */
+public class ImportReport {
+
+    /**
+     * A row of the file that was not imported, and why.
+     */
+    public static class Reject {
+
+        private final long line;
+        private final String reason;
+
+        /**
+         * @param line the line number of the row, counting from 1
+         * @param reason why the row was rejected
+         */
+        public Reject(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the line number of the row, counting from 1
+         */
+        public long getLine() {
+            return line;
+        }
+
+        /**
+         * @return why the row was rejected
+         */
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    private final long rowsRead;
+    private final long rowsInserted;
+    private final long rowsUpdated;
+    private final long rowsRejected;
+    private final long bytesRead;
+    private final long elapsedNanos;
+    private final List<Reject> rejects;
+
+    /**
+     * Create a report of an import.
+     *
+     * @param rowsRead the number of data rows read, including rejected rows
+     * @param rowsInserted the number of new records
+     * @param rowsUpdated the number of existing records that were replaced
+     * @param rowsRejected the number of rows that failed validation
+     * @param bytesRead the size of the file
+     * @param elapsedNanos how long the import took
+     * @param rejects the first of the rejected rows
+     */
+    public ImportReport(long rowsRead, long rowsInserted, long rowsUpdated, long rowsRejected,
+            long bytesRead, long elapsedNanos, List<Reject> rejects) {
+        this.rowsRead = rowsRead;
+        this.rowsInserted = rowsInserted;
+        this.rowsUpdated = rowsUpdated;
+        this.rowsRejected = rowsRejected;
+        this.bytesRead = bytesRead;
+        this.elapsedNanos = elapsedNanos;
+        this.rejects = Collections.unmodifiableList(rejects);
+    }
+
+    /**
+     * @return the number of data rows read, including rejected rows
+     */
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * @return the number of new records
+     */
+    public long getRowsInserted() {
+        return rowsInserted;
+    }
+
+    /**
+     * @return the number of existing records that were replaced
+     */
+    public long getRowsUpdated() {
+        return rowsUpdated;
+    }
+
+    /**
+     * @return the number of rows that failed validation
+     */
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    /**
+     * @return the number of bytes read from the file
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return how long the import took, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000;
+    }
+
+    /**
+     * @return the number of rows read per second
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rowsRead * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the rejected rows, in file order. Only the first rejects are
+     * kept, so the list may be shorter than the number of rejected rows.
+     */
+    public List<Reject> getRejects() {
+        return rejects;
+    }
+
+}
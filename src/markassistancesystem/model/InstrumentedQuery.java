@@ -0,0 +1,273 @@
+package markassistancesystem.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * InstrumentedQuery is an IQuery decorator that records, for each query, the
+ * distribution of call durations and the numbers of calls, failed calls and
+ * records returned or changed. Counts are recorded under Query.COUNT,
+ * whichever selection is counted.
+ * <p>
+ * The metrics, and those of the connection pool if one is given, can be
+ * published as JMX MBeans with register() and written to the log every so
+ * often with startLogging(). Recording can be switched off, in which case
+ * each call costs one volatile read over calling the decorated query.
+ *
+ * @author Ziheng Cong
+ */
+public class InstrumentedQuery implements IQuery<Query, Student> {
+
+    private static final Logger LOGGER = Logger.getLogger(InstrumentedQuery.class.getName());
+
+    // The JMX domain of the MBeans
+    private static final String DOMAIN = "markassistancesystem";
+
+    private final IQuery<Query, Student> queries;
+    private final ConnectionPool pool;
+    private final EnumMap<Query, QueryMetrics> metrics = new EnumMap<>(Query.class);
+    private volatile boolean enabled = true;
+
+    private final List<ObjectName> registered = new ArrayList<>();
+    private ScheduledExecutorService dumper;
+
+    /**
+     * Create an instrumented query interface.
+     * @param queries the query interface being instrumented
+     * @param pool the connection pool used by the queries, whose metrics are
+     * published with the query metrics, or null
+     */
+    public InstrumentedQuery(IQuery<Query, Student> queries, ConnectionPool pool) {
+        this.queries = queries;
+        this.pool = pool;
+        for (Query q : Query.values()) {
+            metrics.put(q, new QueryMetrics());
+        }
+    }
+
+    /**
+     * Switch recording on or off. Metrics already recorded are kept.
+     * @param b whether calls are recorded
+     */
+    public void setEnabled(boolean b) {
+        enabled = b;
+    }
+
+    /**
+     * @return whether calls are recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param q a query
+     * @return the metrics recorded for the query
+     */
+    public QueryMetrics getMetrics(Query q) {
+        return metrics.get(q);
+    }
+
+    // IQuery implementation
+
+    @Override
+    public List<Student> select( Query q, String... p ) throws QueryException {
+        if (!enabled) {
+            return queries.select(q, p);
+        }
+        long start = System.nanoTime();
+        try {
+            List<Student> results = queries.select(q, p);
+            metrics.get(q).record(System.nanoTime() - start, results.size());
+            return results;
+        } catch (QueryException | RuntimeException e) {
+            metrics.get(q).error(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public int selectEach( Query q, Consumer<? super Student> c, String... p ) throws QueryException {
+        if (!enabled) {
+            return queries.selectEach(q, c, p);
+        }
+        long start = System.nanoTime();
+        try {
+            int n = queries.selectEach(q, c, p);
+            metrics.get(q).record(System.nanoTime() - start, n);
+            return n;
+        } catch (QueryException | RuntimeException e) {
+            metrics.get(q).error(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public int count( Query q, String... p ) throws QueryException {
+        if (!enabled) {
+            return queries.count(q, p);
+        }
+        long start = System.nanoTime();
+        try {
+            int n = queries.count(q, p);
+            metrics.get(Query.COUNT).record(System.nanoTime() - start, 1);
+            return n;
+        } catch (QueryException | RuntimeException e) {
+            metrics.get(Query.COUNT).error(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public int command( Query q, Student s ) throws QueryException {
+        if (!enabled) {
+            return queries.command(q, s);
+        }
+        long start = System.nanoTime();
+        try {
+            int n = queries.command(q, s);
+            metrics.get(q).record(System.nanoTime() - start, n);
+            return n;
+        } catch (QueryException | RuntimeException e) {
+            metrics.get(q).error(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public int[] commandAll( Query q, Collection<? extends Student> ss ) throws QueryException {
+        if (!enabled) {
+            return queries.commandAll(q, ss);
+        }
+        long start = System.nanoTime();
+        try {
+            int[] outcomes = queries.commandAll(q, ss);
+            long n = 0;
+            for (int o : outcomes) {
+                n += Math.max(0, o);
+            }
+            metrics.get(q).record(System.nanoTime() - start, n);
+            return outcomes;
+        } catch (QueryException | RuntimeException e) {
+            metrics.get(q).error(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void cancel() {
+        queries.cancel();
+    }
+
+    // Publishing
+
+    /**
+     * Publish the metrics of each query, and of the connection pool, as MBeans
+     * on the platform MBean server, named
+     * markassistancesystem:type=QueryMetrics,query=Q and
+     * markassistancesystem:type=ConnectionPool. MBeans that cannot be
+     * registered are logged and skipped.
+     */
+    public synchronized void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Map.Entry<Query, QueryMetrics> m : metrics.entrySet()) {
+                register(server, new ObjectName(DOMAIN + ":type=QueryMetrics,query=" + m.getKey()),
+                        new StandardMBean(m.getValue(), QueryMetricsMBean.class));
+            }
+            if (pool != null) {
+                register(server, new ObjectName(DOMAIN + ":type=ConnectionPool"),
+                        new StandardMBean(pool, ConnectionPoolMBean.class));
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Unable to publish query metrics", e);
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object mbean) {
+        try {
+            server.registerMBean(mbean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Unable to register " + name, e);
+        }
+    }
+
+    /**
+     * Write the metrics of every query that has been called to the log at
+     * level INFO, every period.
+     * @param period the time between dumps
+     * @param unit the unit of period
+     */
+    public synchronized void startLogging(long period, TimeUnit unit) {
+        if (dumper != null) {
+            dumper.shutdown();
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "query-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(this::log, period, period, unit);
+    }
+
+    /**
+     * Write the metrics of every query that has been called to the log at
+     * level INFO.
+     */
+    public void log() {
+        if (!LOGGER.isLoggable(Level.INFO)) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Query metrics (calls, errors, rows, mean/p50/p99/max ms)");
+        for (Map.Entry<Query, QueryMetrics> e : metrics.entrySet()) {
+            QueryMetrics m = e.getValue();
+            if (m.getCalls() > 0) {
+                sb.append(String.format("%n  %-28s %8d %6d %10d %9.3f %9.3f %9.3f %9.3f",
+                        e.getKey(), m.getCalls(), m.getErrors(), m.getRows(), m.getMeanMillis(),
+                        m.getMedianMillis(), m.getPercentile99Millis(), m.getMaxMillis()));
+            }
+        }
+        if (pool != null) {
+            sb.append(String.format("%n  connection waits: %d, mean %.3f ms, p99 %.3f ms, max %.3f ms, %d timeouts",
+                    pool.getAcquisitionCount(), pool.getAverageWaitMillis(),
+                    pool.getWaitPercentileMillis(99), pool.getMaxWaitMillis(), pool.getTimeoutCount()));
+        }
+        LOGGER.info(sb.toString());
+    }
+
+    /**
+     * Stop logging and unpublish the MBeans.
+     */
+    public synchronized void close() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // already unregistered
+            }
+        }
+        registered.clear();
+    }
+}
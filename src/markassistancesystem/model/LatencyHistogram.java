@@ -0,0 +1,127 @@
+package markassistancesystem.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records durations in nanoseconds in log-linear buckets,
+ * in the manner of HdrHistogram: each power of two is divided into sixteen
+ * buckets, so a recorded value is known to within about 6%, whatever its
+ * size. Recording is lock free and allocation free, so it can be done on
+ * every call of a hot path from many threads.
+ *
+ * @author Ziheng Cong
+ */
+public final class LatencyHistogram {
+
+    // Sub-buckets per power of two, as a number of bits
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration.
+     * @param nanos the duration in nanoseconds; negative durations are
+     * recorded as zero
+     */
+    public void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(v));
+        count.increment();
+        sum.add(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean duration in milliseconds, or 0 if none were recorded
+     */
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / 1e6 / n;
+    }
+
+    /**
+     * @return the longest duration in milliseconds
+     */
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    /**
+     * Estimate a percentile of the durations. The estimate is the largest
+     * duration that falls in the same bucket as the percentile.
+     * @param percentile the percentile, from 0 to 100
+     * @return the percentile in milliseconds, or 0 if none were recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get()) / 1e6;
+            }
+        }
+        return max.get() / 1e6;
+    }
+
+    /**
+     * Discard the recorded durations. Durations recorded while the histogram
+     * is being reset may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /*
+     * The bucket of a value: values below SUB_COUNT have a bucket each; above
+     * that, the position of the highest set bit selects a power of two and
+     * the SUB_BITS bits below it select the bucket within it.
+     */
+    private static int bucket(long v) {
+        if (v < SUB_COUNT) {
+            return (int) v;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(v);
+        int shift = magnitude - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((v >>> shift) & (SUB_COUNT - 1));
+    }
+
+    /*
+     * The largest value that falls in a bucket
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        long highest = lowest + (1L << shift) - 1;
+        // the buckets of the top power of two reach past Long.MAX_VALUE
+        return highest < lowest || lowest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
@@ -6,15 +6,26 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 import java.util.EnumMap;
 
 /**
  * The MarkAssistanceSystem class is responsible for the management of student
  * marks.Connection functionality is accessed via the IConnect interface; query
  * functionality via the IQuery interface.
+ * Queries lease connections from a bounded pool, so a single instance can be
+ * shared by several presenters and threads.
  *
  * @author Ziheng Cong
  */
@@ -25,13 +36,127 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      */
     public static enum Query {
         ALL, LAST_NAME, UPDATE, RANGE, GRADE, TOLERANCE, UPDATE_CURRENT_GREADE, UPDATE_ALL_GRADE, 
+        UPDATE_ALL_GRADE_IN_DATABASE, PAGE, COUNT, KEY_AT, PARTITION, PARTITION_TAIL,
+        NEAR_BOUNDARY, INSERT, PAGE_BY_TOTAL, PAGE_BY_GRADE, BY_ID, DISTRIBUTION,
+        UPDATE_VERSIONED, VERIFY_TOTALS, CHANGES, LOCK_CHANGES,
     };
 
+    /**
+     * The Regrade enum specifies the ways in which UPDATE_ALL_GRADE can be
+     * carried out
+     */
+    public static enum Regrade {
+        // one update command per record
+        ROW_BY_ROW,
+        // updates are batched and committed as a single transaction
+        BATCH,
+        // grades are calculated by the database in a single update command
+        SERVER_SIDE,
+        // as BATCH, but only records whose grade has changed are written
+        INCREMENTAL,
+        // as INCREMENTAL, with ranges of student IDs regraded in parallel
+        PARALLEL,
+    };
+
+    /**
+     * The TotalMode enum specifies how the total mark and grade of a record
+     * are kept consistent with its marks
+     */
+    public static enum TotalMode {
+        // the total and grade are stored as they are given
+        CLIENT,
+        // the database derives the total from the marks as a record is written
+        DERIVED,
+        // as DERIVED, and the grade is derived from the marks too
+        DERIVED_GRADE,
+    };
+
+    /*
+     * The changes to the marks committed by one command, as counted in the
+     * MarksChanges table by the triggers on the Marks table. Each transaction
+     * locks the count before it writes, so its changes are those between the
+     * count before and after it; the changes of a command follow one another,
+     * with no change by another client between them, when the counts before
+     * and after them differ by their number.
+     */
+    static final class Changes {
+        private long before;
+        private long after;
+        private long n = 0;
+
+        /*
+         * Note the changes committed by a transaction, given the change
+         * counts before and after them
+         */
+        synchronized void add(long from, long to) {
+            if (n == 0 || from < before) {
+                before = from;
+            }
+            if (n == 0 || to > after) {
+                after = to;
+            }
+            n += to - from;
+        }
+
+        /*
+         * Whether there are changes, and they were the only changes made
+         * since the marks stood at the given change count
+         */
+        synchronized boolean follow(long count) {
+            return n > 0 && before == count && after - before == n;
+        }
+
+        /*
+         * The change count after the last of the changes
+         */
+        synchronized long last() {
+            return after;
+        }
+    }
+
     // Database details for the address book being managed
-    private static final String URL = "jdbc:derby://localhost:1527/marks";
+    private static final String DATABASE = "marks";
     private static final String USERNAME = "marks";
     private static final String PASSWORD = "marks";
 
+    /*
+     * The grade determination rules of GradeEngine expressed as an
+     * SQL CASE expression over the columns of a marks record. Null columns are
+     * read as zero, as they are by ResultSet.getInt().
+     */
+    static final String GRADE_CASE = gradeCase(
+            "COALESCE(Total, 0)", "COALESCE(Assignment1, 0)",
+            "COALESCE(Assignment2, 0)", "COALESCE(Exam, 0)");
+
+    /*
+     * The total and grade earned by the marks of a record, whatever its stored
+     * total, as SQL expressions over its columns
+     */
+    private static final String DERIVED_TOTAL = derivedTotal("");
+    private static final String DERIVED_GRADE = derivedGrade("");
+
+    // Default number of updates sent to the database in one batch
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The outcome of a record given to commandAll() that was not written
+     * because it has been updated since the version it carries
+     */
+    public static final int CONFLICT = -1;
+
+    // Default number of records written in one transaction by commandAll()
+    private static final int DEFAULT_TRANSACTION_SIZE = 500;
+
+    // Default number of rows fetched at a time by a selection
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
+    // Page sizes supported by Derby, in bytes
+    private static final int[] PAGE_SIZES = { 4096, 8192, 16384, 32768 };
+
+    // Default bounds for the connection pool
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final long DEFAULT_ACQUIRE_TIMEOUT = 30000;
+
     /* 
      * We use enummaps to map queries (enum values) to SQL commands and prepared 
      * statements in a typesafe manner. Hashmaps could be used to the same effect,
@@ -41,11 +166,48 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      */
     private EnumMap<Query, String> sqlCommands = 
         new EnumMap<>( MarkAssistanceSystemModule.Query.class );
-        private EnumMap<Query, PreparedStatement> statements = 
-        new EnumMap<>( MarkAssistanceSystemModule.Query.class );
 
-    // The connection to the marks
-    private Connection connection = null;
+    // Database details for the marks being managed by this instance
+    private String url;
+    private final String username;
+    private final String password;
+
+    // How the database is reached, and the settings of the embedded engine.
+    // A page cache size or page size of zero leaves the Derby default.
+    private ConnectionMode connectionMode = ConnectionMode.NETWORK;
+    private int pageCacheSize = 0;
+    private int pageSize = 0;
+
+    /*
+     * The connections to the marks. Each query leases a connection from the
+     * pool for its duration and uses the prepared statements cached on that
+     * connection, so queries from different threads can run in parallel.
+     */
+    private volatile ConnectionPool pool = null;
+    private int poolSize = DEFAULT_POOL_SIZE;
+    private long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    // How UPDATE_ALL_GRADE is performed
+    private volatile Regrade regrade = Regrade.INCREMENTAL;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    // Number of records written in one batch and transaction by commandAll()
+    private volatile int transactionSize = DEFAULT_TRANSACTION_SIZE;
+
+    // Number of rows fetched from the database at a time by a selection
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+
+    // Number of partitions regraded at once in PARALLEL mode
+    private volatile int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // How totals are kept consistent; null leaves the database as it is
+    private volatile TotalMode totalMode = null;
+
+    // Where successful commands are published; null if they are not
+    private volatile MarkEventBus events = null;
+
+    // The changes committed by the command being performed on each thread
+    private final ThreadLocal<Changes> changes = new ThreadLocal<>();
 
     /**
      * Create an instance of the marks manager. Clients have no access to
@@ -53,26 +215,270 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      * multiple instances of the manager, which is probably a bad idea.
      */
     public MarkAssistanceSystemModule() {
+        this( ConnectionMode.NETWORK.url(DATABASE), USERNAME, PASSWORD );
+    }
+
+    /**
+     * Create an instance of the marks manager for the marks held in a given
+     * database, such as an embedded database used for benchmarking.
+     * @param url the JDBC URL of the database
+     * @param username the database user
+     * @param password the password of the database user
+     */
+    public MarkAssistanceSystemModule(String url, String username, String password) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
         // Specify the queries that are supported
         sqlCommands.put( Query.ALL, 
             "SELECT * FROM Marks" );
         sqlCommands.put( Query.LAST_NAME, 
             "SELECT * FROM Marks WHERE Assignment1 = ?" );
         sqlCommands.put( Query.UPDATE, 
-            "UPDATE Marks SET Assignment1 = ?, Assignment2 = ?, Exam = ?, Total = ?, Grade = ? WHERE StudentID = ?" );
+            "UPDATE Marks SET Assignment1 = ?, Assignment2 = ?, Exam = ?, Total = ?, Grade = ?,"
+            + " Version = Version + 1 WHERE StudentID = ?" );
+        sqlCommands.put( Query.UPDATE_VERSIONED, 
+            "UPDATE Marks SET Assignment1 = ?, Assignment2 = ?, Exam = ?, Total = ?, Grade = ?,"
+            + " Version = Version + 1 WHERE StudentID = ? AND Version = ?" );
+        sqlCommands.put( Query.INSERT, 
+            "INSERT INTO Marks (StudentID, Assignment1, Assignment2, Exam, Total, Grade) VALUES (?, ?, ?, ?, ?, ?)" );
         sqlCommands.put( Query.RANGE, 
             "SELECT * FROM Marks WHERE Total >= ? AND Total <= ?" );
         sqlCommands.put( Query.GRADE, 
             "SELECT * FROM Marks WHERE Grade = ? ORDER BY Total" );
+        // A grade that changes moves the record on a version, as an update
+        // of its marks does; rewriting the same grade does not
         sqlCommands.put( Query.UPDATE_ALL_GRADE, 
-            "UPDATE Marks SET Grade = ? WHERE StudentID = ?" );
+            "UPDATE Marks SET Grade = ?,"
+            + " Version = CASE WHEN Grade = ? THEN Version ELSE Version + 1 END WHERE StudentID = ?" );
+        sqlCommands.put( Query.UPDATE_ALL_GRADE_IN_DATABASE, 
+            "UPDATE Marks SET Grade = " + GRADE_CASE + ","
+            + " Version = CASE WHEN Grade = " + GRADE_CASE + " THEN Version ELSE Version + 1 END" );
         sqlCommands.put( Query.UPDATE_CURRENT_GREADE, 
-            "UPDATE Marks SET Grade = ? WHERE StudentID = ?" );
+            "UPDATE Marks SET Grade = ?,"
+            + " Version = CASE WHEN Grade = ? THEN Version ELSE Version + 1 END WHERE StudentID = ?" );
+        sqlCommands.put( Query.PAGE, 
+            "SELECT * FROM Marks ORDER BY StudentID OFFSET ? ROWS FETCH NEXT ? ROWS ONLY" );
+        sqlCommands.put( Query.PAGE_BY_TOTAL, 
+            "SELECT * FROM Marks ORDER BY Total, StudentID OFFSET ? ROWS FETCH NEXT ? ROWS ONLY" );
+        sqlCommands.put( Query.PAGE_BY_GRADE, 
+            "SELECT * FROM Marks ORDER BY Grade, Total, StudentID OFFSET ? ROWS FETCH NEXT ? ROWS ONLY" );
+        sqlCommands.put( Query.COUNT, 
+            "SELECT COUNT(*) FROM Marks" );
+        sqlCommands.put( Query.KEY_AT, 
+            "SELECT StudentID FROM Marks ORDER BY StudentID OFFSET ? ROWS FETCH NEXT 1 ROWS ONLY" );
+        // A range is read in key order through the primary key, whose entries
+        // stay in place as grades are written; the covering index on grade
+        // would otherwise be chosen and read rows again as they move in it
+        sqlCommands.put( Query.PARTITION, 
+            "SELECT * FROM Marks WHERE StudentID >= ? AND StudentID < ? ORDER BY StudentID" );
+        sqlCommands.put( Query.PARTITION_TAIL, 
+            "SELECT * FROM Marks WHERE StudentID >= ? ORDER BY StudentID" );
         sqlCommands.put( Query.TOLERANCE, 
-            "SELECT * FROM Marks WHERE (Total + ?) = 85 OR (Total + ?) = 75 OR (Total + ?) = 65 OR (Total + ?) = 50" );
+            "SELECT * FROM Marks WHERE Total IN (?, ?, ?, ?)" );
+        sqlCommands.put( Query.NEAR_BOUNDARY, 
+            nearBoundary() );
+        sqlCommands.put( Query.BY_ID, 
+            "SELECT * FROM Marks WHERE StudentID = ?" );
+        sqlCommands.put( Query.DISTRIBUTION, 
+            "SELECT Total, Grade, COUNT(*) FROM Marks GROUP BY Total, Grade" );
+        sqlCommands.put( Query.VERIFY_TOTALS, 
+            "SELECT COUNT(*),"
+            + " SUM(CASE WHEN Total IS NULL OR Total <> " + DERIVED_TOTAL + " THEN 1 ELSE 0 END),"
+            + " SUM(CASE WHEN Grade IS NULL OR Grade <> " + DERIVED_GRADE + " THEN 1 ELSE 0 END),"
+            + " MIN(CASE WHEN Total IS NULL OR Total <> " + DERIVED_TOTAL
+            + " OR Grade IS NULL OR Grade <> " + DERIVED_GRADE + " THEN StudentID END) FROM Marks" );
+        sqlCommands.put( Query.CHANGES, 
+            "SELECT Changes FROM MarksChanges WHERE Id = 1" );
+        sqlCommands.put( Query.LOCK_CHANGES, 
+            "LOCK TABLE MarksChanges IN EXCLUSIVE MODE" );
     }
     
     
+    /**
+     * Set the way in which all grades are recalculated
+     * @param r the regrade mode
+     */
+    public void setRegrade(Regrade r) {
+        regrade = r;
+    }
+
+    /**
+     * Set the number of grade updates sent to the database in one batch when
+     * regrading in BATCH mode
+     * @param size the batch size
+     * @throws IllegalArgumentException if size is not positive
+     */
+    public void setBatchSize(int size) throws IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        batchSize = size;
+    }
+
+    /**
+     * Set how the total mark and grade of each record are kept consistent
+     * with its marks. In the DERIVED modes, triggers in the database correct
+     * the total, and the grade, of each record as it is inserted or its marks
+     * are updated, whoever writes it; in CLIENT mode the triggers are
+     * removed. Takes effect on the next call to initialise(); until a mode is
+     * set, the triggers are left as they are.
+     * @param m the mode
+     */
+    public void setTotalMode(TotalMode m) {
+        totalMode = m;
+    }
+
+    /**
+     * Find the record that the database will store when a record is written
+     * by an UPDATE command, which differs from the record given in the
+     * DERIVED modes.
+     * @param p the record given
+     * @return the record stored
+     */
+    public Student derive(Student p) {
+        TotalMode m = totalMode;
+        if (m == null || m == TotalMode.CLIENT) {
+            return p;
+        }
+        int total = p.getAssignment1() + p.getAssignment2() + p.getExam();
+        String grade = m == TotalMode.DERIVED_GRADE
+                ? gradeDetermination(total, p.getAssignment1(), p.getAssignment2(), p.getExam())
+                : p.getGrade();
+        return new Student(p.getStudentID(), p.getAssignment1(), p.getAssignment2(), p.getExam(),
+                total, grade, p.getVersion());
+    }
+
+    /**
+     * Set the number of records written in one batch, and committed in one
+     * transaction, by commandAll()
+     * @param size the transaction size
+     * @throws IllegalArgumentException if size is not positive
+     */
+    public void setTransactionSize(int size) throws IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Transaction size must be positive");
+        }
+        transactionSize = size;
+    }
+
+    /**
+     * Set the number of rows fetched from the database at a time by a
+     * selection
+     * @param size the fetch size
+     * @throws IllegalArgumentException if size is not positive
+     */
+    public void setFetchSize(int size) throws IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive");
+        }
+        fetchSize = size;
+    }
+
+    /**
+     * Set the number of ranges of student IDs that are regraded at once in
+     * PARALLEL mode. Each range is regraded on its own pooled connection, so
+     * no more ranges than the pool size are regraded at once.
+     * @param n the degree of parallelism
+     * @throws IllegalArgumentException if n is not positive
+     */
+    public void setParallelism(int n) throws IllegalArgumentException {
+        if (n < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        parallelism = n;
+    }
+
+    /**
+     * Set how the marks database is reached. Takes effect on the next call to
+     * connect().
+     * @param mode the connection mode
+     */
+    public void setConnectionMode(ConnectionMode mode) {
+        connectionMode = mode;
+        url = mode.url(DATABASE);
+    }
+
+    /**
+     * Set the number of pages held in the page cache of the embedded engine.
+     * The cache is sized when the engine starts, so this only takes effect if
+     * set before the first embedded connection is made; it is ignored in
+     * NETWORK mode, where the cache belongs to the server.
+     * @param pages the number of pages, or zero for the Derby default
+     * @throws IllegalArgumentException if pages is negative
+     */
+    public void setPageCacheSize(int pages) throws IllegalArgumentException {
+        if (pages < 0) {
+            throw new IllegalArgumentException("Page cache size must not be negative");
+        }
+        pageCacheSize = pages;
+    }
+
+    /**
+     * Set the page size used for tables and indexes that the embedded engine
+     * creates from the next call to connect(). It is ignored in NETWORK mode.
+     * @param bytes 4096, 8192, 16384 or 32768, or zero for the Derby default
+     * @throws IllegalArgumentException if bytes is not a supported page size
+     */
+    public void setPageSize(int bytes) throws IllegalArgumentException {
+        if (bytes != 0 && Arrays.binarySearch(PAGE_SIZES, bytes) < 0) {
+            throw new IllegalArgumentException("Unsupported page size: " + bytes);
+        }
+        pageSize = bytes;
+    }
+
+    /**
+     * Set the maximum number of connections that are opened to the marks.
+     * Takes effect on the next call to connect().
+     * @param size the pool size
+     * @throws IllegalArgumentException if size is not positive
+     */
+    public void setPoolSize(int size) throws IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        poolSize = size;
+    }
+
+    /**
+     * Set how long a query waits for a free connection before failing. Takes
+     * effect on the next call to connect().
+     * @param millis the timeout in milliseconds
+     * @throws IllegalArgumentException if millis is negative
+     */
+    public void setAcquireTimeout(long millis) throws IllegalArgumentException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        acquireTimeout = millis;
+    }
+
+    /**
+     * Publish a change event on a bus for each record changed by a command:
+     * UPDATE, UPDATE_CURRENT_GREADE, UPDATE_ALL_GRADE and imports. Each
+     * event is published once the change is committed.
+     * The bus is closed when the module is disconnected.
+     * @param bus the bus, or null to stop publishing
+     */
+    public void setEventBus(MarkEventBus bus) {
+        events = bus;
+    }
+
+    /**
+     * @return the bus on which changes are published, or null
+     */
+    public MarkEventBus getEventBus() {
+        return events;
+    }
+
+    /**
+     * @return the connection pool, which provides usage metrics, or null if
+     * not connected
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
     // IConnct implementation
 
     /**
@@ -81,14 +487,25 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      */ 
     @Override
     public void connect() throws ConnectionException {
-        // Connect to the address book database
+        // Connect to the address book database, opening the first pooled
+        // connection now so that connection problems are reported here
+        if ( connectionMode.isEmbedded() ) {
+            // The embedded engine reads its settings from system properties
+            if ( pageCacheSize > 0 ) {
+                System.setProperty( "derby.storage.pageCacheSize", String.valueOf(pageCacheSize) );
+            }
+            if ( pageSize > 0 ) {
+                System.setProperty( "derby.storage.pageSize", String.valueOf(pageSize) );
+            }
+        }
+        ConnectionPool cp = new ConnectionPool( url, username, password,
+                sqlCommands, poolSize, acquireTimeout );
         try {
-        connection = DriverManager.getConnection( URL, USERNAME, PASSWORD );
-        // Set proper schema
-        connection.setSchema("APP"); 
+            cp.fill(1);
         } catch(SQLException e ) {
             throw new ConnectionException("Unable to open data source",e);
         }
+        pool = cp;
     }
 
     /**
@@ -99,12 +516,16 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      */
     @Override
     public void initialise() throws ConnectionException {
-        // Create prepared statements for each query
-        try {
-            for (Query q : Query.values()) {
-                statements.put(q, connection.prepareStatement(sqlCommands.get(q)));
+        // Bring the schema up to date, then create prepared statements for
+        // each query on the first connection; other connections prepare their
+        // statements as they are used
+        try (PooledConnection pc = pool.acquire()) {
+            SchemaMigration.migrate(pc.getConnection());
+            if ( totalMode != null ) {
+                SchemaMigration.derive(pc.getConnection(), derivation(totalMode));
             }
-        } catch (SQLException e) {
+            pc.prepareAll();
+        } catch (QueryException | SQLException e) {
             throw new ConnectionException("Unable to initialise data source",e);
         }
     }
@@ -116,16 +537,30 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      */
     @Override
     public void disconnect() throws ConnectionException {
-        // Close the connection 
-        try (Connection c = connection) {
-            // connection is closed automatically with try with resources
-            // close prepared statements first
-            for (Query q : Query.values()) {
-                statements.get(q).close();
-            }
+        // Give subscribers the changes already published
+        MarkEventBus bus = events;
+        if ( bus != null ) {
+            bus.close();
+        }
+        // Close the connections and their prepared statements
+        try {
+            pool.close();
         } catch (SQLException e) {
             throw new ConnectionException("Unable to close data source",e);
         }
+        // Shut down an embedded database so it need not be recovered when it
+        // is next opened
+        String shutdown = connectionMode.shutdownUrl(DATABASE);
+        if ( shutdown != null ) {
+            try {
+                DriverManager.getConnection( shutdown, username, password ).close();
+            } catch (SQLException e) {
+                // Derby reports a clean shutdown with SQL state 08006
+                if ( !"08006".equals(e.getSQLState()) ) {
+                    throw new ConnectionException("Unable to shut down data source",e);
+                }
+            }
+        }
     }
 
     // IQuery implementation
@@ -141,22 +576,293 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
     public List<Student> select( Query q, String... p ) throws QueryException {
         switch ( q ) {
             case ALL:
-                return getAllStudents();
             case TOLERANCE:
-                return getStudentsByTolerance( p[0] );
             case RANGE:
-                return getStudentsByRange( p[0], p[1] );
-            case UPDATE_ALL_GRADE:
-                return updateAllGrades();
             case GRADE:
-                return getStudentsByGrade( p[0] );
+            case PAGE:
+            case PAGE_BY_TOTAL:
+            case PAGE_BY_GRADE:
+            case BY_ID:
+                List<Student> results = new ArrayList<>();
+                selectEach( q, results::add, p );
+                return results;
+            case UPDATE_ALL_GRADE:
+                return regradeAll().getStudents();
         }
         // Should never happen
         return null;
     }
 
     /**
-     * Perform a command (insert, delete, update ... ) on the address book
+     * Perform a selection on the address book, passing each matching record to
+     * a consumer as it is read. Rows are fetched from the database fetchSize at
+     * a time, so memory use does not grow with the size of the result. The
+     * connection used by the selection is held until the consumer has been
+     * given the last record.
+     * @param q the selection as specified in the Query enum
+     * @param c the consumer for the matching records
+     * @param p parameters for the query specified as a varags of type Object
+     * @return the number of records passed to the consumer
+     * @throws QueryException 
+     */
+    @Override
+    public int selectEach( Query q, Consumer<? super Student> c, String... p ) throws QueryException {
+        if ( q == Query.UPDATE_ALL_GRADE ) {
+            // the regrade already holds its records in memory
+            List<Student> results = regradeAll().getStudents();
+            results.forEach(c);
+            return results.size();
+        }
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(q);
+            try {
+                parameterise(q, ps, p);
+                ps.setFetchSize(fetchSize);
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to paramaterise selection query", e));
+            }
+            // executeQuery returns ResultSet containing matching entries
+            try (ResultSet resultSet = ps.executeQuery()) {
+                int n = 0;
+                while (resultSet.next()) {
+                    pc.checkCancelled();
+                    c.accept(createStudent(resultSet));
+                    n++;
+                }
+                return n;
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute selection query", e));
+            }
+        }
+    }
+
+    /**
+     * Perform a selection on the address book, loading the matching records
+     * into a columnar store rather than a list of Student objects. No Student
+     * objects are created while the records are read.
+     * @param q the selection as specified in the Query enum
+     * @param p parameters for the query specified as a varags of type Object
+     * @return the matching records
+     * @throws QueryException 
+     */
+    public MarkColumns selectColumns( Query q, String... p ) throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(q);
+            try {
+                parameterise(q, ps, p);
+                ps.setFetchSize(fetchSize);
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to paramaterise selection query", e));
+            }
+            // executeQuery returns ResultSet containing matching entries
+            try (ResultSet resultSet = ps.executeQuery()) {
+                MarkColumns results = new MarkColumns();
+                while (resultSet.next()) {
+                    pc.checkCancelled();
+                    results.add(resultSet);
+                }
+                return results;
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute selection query", e));
+            }
+        }
+    }
+
+    /**
+     * Count the records that a selection on the address book would return. All
+     * of the records are counted by the database; other selections are counted
+     * as they are read.
+     * @param q the selection as specified in the Query enum
+     * @param p parameters for the query specified as a varags of type Object
+     * @return the number of matching records
+     * @throws QueryException 
+     */
+    @Override
+    public int count( Query q, String... p ) throws QueryException {
+        if ( q != Query.ALL ) {
+            return IQuery.super.count( q, p );
+        }
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.COUNT);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute count query", e));
+            }
+        }
+    }
+
+    /**
+     * Select the records whose total mark is within k marks at or below the
+     * boundary of a pass band, tagged with the boundary. A record is tagged
+     * with the nearest boundary at or above its total, so a window wider
+     * than a pass band stops at the next boundary down. Records are passed to
+     * the consumer by boundary, highest first, and then by total, highest
+     * first.
+     * @param k the width of the window below each boundary
+     * @param c the consumer of the tagged records
+     * @return the number of records selected
+     * @throws QueryException 
+     * @throws IllegalArgumentException if k is negative
+     */
+    public int selectNearBoundary( int k, Consumer<? super NearBoundary> c ) throws QueryException {
+        if (k < 0) {
+            throw new IllegalArgumentException("Window must not be negative");
+        }
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.NEAR_BOUNDARY);
+            int n = 0;
+            try {
+                ps.setFetchSize(fetchSize);
+                parameterise(Query.NEAR_BOUNDARY, ps, String.valueOf(k));
+                try (ResultSet resultSet = ps.executeQuery()) {
+                    while (resultSet.next()) {
+                        pc.checkCancelled();
+                        c.accept(new NearBoundary(createStudent(resultSet), resultSet.getInt("Boundary")));
+                        n++;
+                    }
+                }
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute near boundary query", e));
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Select the records whose total mark is within k marks at or below the
+     * boundary of a pass band, as selectNearBoundary(int, Consumer).
+     * @param k the width of the window below each boundary
+     * @return the tagged records
+     * @throws QueryException 
+     */
+    public List<NearBoundary> selectNearBoundary( int k ) throws QueryException {
+        List<NearBoundary> results = new ArrayList<>();
+        selectNearBoundary( k, results::add );
+        return results;
+    }
+
+    /**
+     * @return the version of the schema of the marks, which initialise()
+     * brings up to date
+     * @throws QueryException 
+     */
+    public int getSchemaVersion() throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            return SchemaMigration.version(pc.getConnection());
+        } catch (SQLException e) {
+            throw (new QueryException("Unable to read schema version", e));
+        }
+    }
+
+    /**
+     * Run a selection and describe how the database carried it out, using
+     * Derby runtime statistics. The description names the indexes that were
+     * used, so it can be used to confirm that a query does not scan the whole
+     * table.
+     * @param q the selection as specified in the Query enum
+     * @param p parameters for the query specified as a varags of type Object
+     * @return the runtime statistics of the selection
+     * @throws QueryException 
+     */
+    public String getQueryPlan( Query q, String... p ) throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            Connection connection = pc.getConnection();
+            try (Statement s = connection.createStatement()) {
+                s.execute("CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)");
+                try {
+                    // Use a new statement, so that the plan reflects the
+                    // indexes as they are now
+                    try (PreparedStatement ps = connection.prepareStatement(pool.getSql(q))) {
+                        parameterise(q, ps, p);
+                        try (ResultSet resultSet = ps.executeQuery()) {
+                            while (resultSet.next()) {
+                                // statistics are complete once every row is read
+                            }
+                        }
+                    }
+                    try (ResultSet rs = s.executeQuery("VALUES SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()")) {
+                        rs.next();
+                        return rs.getString(1);
+                    }
+                } finally {
+                    s.execute("CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(0)");
+                }
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to obtain query plan", e));
+            }
+        }
+    }
+
+    /**
+     * Read the number of changes made to the marks. Triggers on the Marks
+     * table count every statement that writes records as a change, whichever
+     * client runs it, so a client can tell whether the marks have changed by
+     * reading a single row.
+     * @return the change count
+     * @throws QueryException 
+     */
+    public long getChangeCount() throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.CHANGES);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute change count query", e));
+            }
+        }
+    }
+
+    /**
+     * Verify that the stored total and grade of every record agree with its
+     * marks, as after a bulk load. The records are counted by the database
+     * in a single aggregate query, so no record is sent to the client.
+     * @return the number of records, and of inconsistent totals and grades
+     * @throws QueryException 
+     */
+    public TotalsReport verifyTotals() throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.VERIFY_TOTALS);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return new TotalsReport(resultSet.getInt(1), resultSet.getInt(2),
+                        resultSet.getInt(3), resultSet.getString(4));
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute verify totals query", e));
+            }
+        }
+    }
+
+    /**
+     * Cancel the selections and commands in progress on every connection,
+     * whoever is running them. To cancel the work of one client only, run it
+     * as a QueryTask and cancel the task. Statements are cancelled if the
+     * driver supports it; otherwise selections and regrades stop at the next
+     * record they read.
+     */
+    @Override
+    public void cancel() {
+        ConnectionPool cp = pool;
+        if (cp != null) {
+            cp.cancelAll();
+        }
+    }
+
+    /**
+     * Perform a command (insert, delete, update ... ) on the address book. An
+     * UPDATE of a record that carries a version fails with a
+     * ConcurrentUpdateException if the record has been updated since that
+     * version. A grade calculation that changes the grade of a record moves
+     * it on a version too, so a record read before its grade changed cannot
+     * overwrite the new grade.
      * @param q the command as specified in the Query enum
      * @param p a Student object containing the data for the command
      * @return the number of records in the address book impacted on by the command
@@ -164,11 +870,18 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      */
     @Override
     public int command( Query q, Student p ) throws QueryException {
+        startChanges();
         switch ( q ) {
             case UPDATE:
-                return updateStudent( p );
+                int n = updateStudent( p );
+                changed( q, derive( p ), n );
+                return n;
             case UPDATE_CURRENT_GREADE:
-                return updateCurrentGrade( p );
+                n = updateCurrentGrade( p );
+                changed( q, new Student( p.getStudentID(), p.getAssignment1(), p.getAssignment2(),
+                        p.getExam(), p.getTotal(), gradeDetermination( p.getTotal(), p.getAssignment1(),
+                        p.getAssignment2(), p.getExam() ) ), n );
+                return n;
         }
         // Should never happen
         return -1;
@@ -183,7 +896,8 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
                     rs.getInt("assignment2"),
                     rs.getInt("exam"),
                     rs.getInt("total"),
-                    rs.getString("grade")
+                    rs.getString("grade"),
+                    rs.getInt("version")
             );
         } catch (SQLException e) {
             throw (new QueryException("Unable to process the result of selection Query",e));
@@ -197,211 +911,837 @@ public class MarkAssistanceSystemModule implements IConnect, IQuery<MarkAssistan
      * Select all of the entries in the marks
      */
     private List< Student> getAllStudents() throws QueryException {
-        // get prepared statement
-        PreparedStatement ps = statements.get(Query.ALL);
-        // executeQuery returns ResultSet containing matching entries
-        try (ResultSet resultSet = ps.executeQuery()) {
-            List<Student> results = new ArrayList<>();
-            while (resultSet.next()) {
-                results.add(createStudent(resultSet));
-            }
-            return results;
-        } catch (SQLException e) {
-            throw (new QueryException("Unable to execute selection ruery", e));
+        return select(Query.ALL);
+    }
+
+    /*
+     * Insert the parameters of a selection into its prepared statement
+     */
+    private static void parameterise(Query q, PreparedStatement ps, String... p) throws SQLException {
+        switch ( q ) {
+            case TOLERANCE:
+                // Insert the total mark that is the tolerance below each
+                // boundary into prepared statement
+                int t = Integer.parseInt(p[0]);
+                for (int i = 0; i < GradeEngine.BOUNDARIES.length; i++) {
+                    ps.setInt(i + 1, GradeEngine.BOUNDARIES[i] - t);
+                }
+                break;
+            case NEAR_BOUNDARY:
+                // Insert the lowest total mark of the window below each
+                // boundary into prepared statement. Windows stop short of the
+                // next boundary down, so each record is tagged once.
+                int k = Integer.parseInt(p[0]);
+                int[] b = GradeEngine.BOUNDARIES;
+                for (int i = 0; i < b.length; i++) {
+                    int lowest = b[i] - k;
+                    ps.setInt(i + 1, i + 1 < b.length ? Math.max(lowest, b[i + 1] + 1) : lowest);
+                }
+                break;
+            case RANGE:
+                // Insert range into prepared statement
+                ps.setInt(1, Integer.parseInt(p[0]));
+                ps.setInt(2, Integer.parseInt(p[1]));
+                break;
+            case GRADE:
+                // Insert grade into prepared statement; matches are presented
+                // in order of increasing total mark
+                ps.setString(1, p[0]);
+                break;
+            case BY_ID:
+                // Insert student ID into prepared statement
+                ps.setString(1, p[0]);
+                break;
+            case PAGE:
+            case PAGE_BY_TOTAL:
+            case PAGE_BY_GRADE:
+                // Insert offset and page size into prepared statement
+                ps.setInt(1, Integer.parseInt(p[0]));
+                ps.setInt(2, Integer.parseInt(p[1]));
+                break;
         }
     }
     
+    /**
+     * Perform a command on each of a collection of records. The commands are
+     * sent to the database in batches of transactionSize records, each batch
+     * being committed as one transaction. If a batch fails it is rolled back
+     * and the records of earlier batches stay written.
+     * <p>
+     * The outcome for each record is the number of records written: 1, or 0
+     * if there is no such record. A record that carries a version and has
+     * been updated since that version is not written, and its outcome is
+     * CONFLICT; the other records of its batch are still written.
+     * @param q the command, UPDATE or UPDATE_CURRENT_GREADE
+     * @param ps the records
+     * @return the outcome for each record, in the order of the collection
+     * @throws QueryException if a batch fails, naming the first record of
+     * the batch
+     */
+    @Override
+    public int[] commandAll( Query q, Collection<? extends Student> ps ) throws QueryException {
+        if ( q != Query.UPDATE && q != Query.UPDATE_CURRENT_GREADE ) {
+            // Should never happen
+            return IQuery.super.commandAll( q, ps );
+        }
+        startChanges();
+        int[] outcomes = new int[ps.size()];
+        List<Student> batch = new ArrayList<>();
+        int first = 0;
+        try (PooledConnection pc = pool.acquire()) {
+            for (Student p : ps) {
+                batch.add(p);
+                if (batch.size() == transactionSize) {
+                    commandBatch(pc, q, batch, outcomes, first);
+                    first += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                commandBatch(pc, q, batch, outcomes, first);
+            }
+        }
+        return outcomes;
+    }
+
     /*
-     * Select people by tolerance
+     * Write a batch of records on a leased connection as one transaction,
+     * storing the outcome for the record at index i of the batch at
+     * outcomes[first + i]. Records with and without a version are written
+     * through different statements.
      */
-    private List< Student> getStudentsByTolerance(String tolerance) throws QueryException {
-        // Look up prepared statement
-        PreparedStatement ps = statements.get(Query.TOLERANCE);
+    private void commandBatch(PooledConnection pc, Query q, List<Student> batch,
+            int[] outcomes, int first) throws QueryException {
+        Connection connection = pc.getConnection();
+        PreparedStatement plain = pc.statement(q);
+        PreparedStatement versioned = q == Query.UPDATE ? pc.statement(Query.UPDATE_VERSIONED) : null;
+        List<Integer> plainRows = new ArrayList<>();
+        List<Integer> versionedRows = new ArrayList<>();
+        Student[] written = new Student[batch.size()];
+        long before = 0;
+        long after = 0;
         try {
-            // Insert tolerance into prepared statement
-            ps.setInt(1, Integer.parseInt(tolerance));
-            ps.setInt(2, Integer.parseInt(tolerance));
-            ps.setInt(3, Integer.parseInt(tolerance));
-            ps.setInt(4, Integer.parseInt(tolerance));
+            connection.setAutoCommit(false);
+            for (int i = 0; i < batch.size(); i++) {
+                pc.checkCancelled();
+                Student p = batch.get(i);
+                if (q == Query.UPDATE_CURRENT_GREADE) {
+                    // only the grade is written, calculated from the marks given
+                    String grade = gradeDetermination(p.getTotal(), p.getAssignment1(), p.getAssignment2(), p.getExam());
+                    plain.setString(1, grade);
+                    plain.setString(2, grade);
+                    plain.setString(3, p.getStudentID());
+                    plain.addBatch();
+                    plainRows.add(i);
+                    written[i] = new Student(p.getStudentID(), p.getAssignment1(), p.getAssignment2(),
+                            p.getExam(), p.getTotal(), grade);
+                    continue;
+                }
+                boolean hasVersion = p.getVersion() != Student.NO_VERSION;
+                PreparedStatement ps = hasVersion ? versioned : plain;
+                ps.setInt(1, p.getAssignment1());
+                ps.setInt(2, p.getAssignment2());
+                ps.setInt(3, p.getExam());
+                ps.setInt(4, p.getTotal());
+                ps.setString(5, p.getGrade());
+                ps.setString(6, p.getStudentID());
+                if (hasVersion) {
+                    ps.setInt(7, p.getVersion());
+                    versionedRows.add(i);
+                } else {
+                    plainRows.add(i);
+                }
+                ps.addBatch();
+                written[i] = derive(p);
+            }
+            before = lockChanges(pc);
+            if (!plainRows.isEmpty()) {
+                record(plain.executeBatch(), plainRows, outcomes, first);
+            }
+            if (!versionedRows.isEmpty()) {
+                record(versioned.executeBatch(), versionedRows, outcomes, first);
+                // Tell records updated since they were read from records
+                // that do not exist
+                for (int i : versionedRows) {
+                    if (outcomes[first + i] == 0 && selectById(pc, batch.get(i).getStudentID()) != null) {
+                        outcomes[first + i] = CONFLICT;
+                    }
+                }
+            }
+            boolean wrote = false;
+            for (int i = 0; i < batch.size(); i++) {
+                wrote |= outcomes[first + i] > 0;
+            }
+            if (wrote) {
+                after = changeCount(pc);
+                connection.commit();
+            } else {
+                // nothing was written, so the change count is left as it was
+                connection.rollback();
+            }
         } catch (SQLException e) {
-            throw (new QueryException("Unable to paramaterise selection query", e));
+            throw rollback(connection, new QueryException("Unable to perform command on records " + (first + 1)
+                    + " to " + (first + batch.size()) + "; earlier records were written", e),
+                    plain, versioned);
+        } catch (QueryException e) {
+            throw rollback(connection, e, plain, versioned);
         }
-        // executeQuery returns ResultSet containing matching entries
-        try (ResultSet resultSet = ps.executeQuery()) {
-            List<Student> results = new ArrayList<>();
-            while (resultSet.next()) {
-                results.add(createStudent(resultSet));
+        restoreAutoCommit(connection);
+        committed(before, after);
+        for (int i = 0; i < written.length; i++) {
+            changed(q, written[i], Math.max(0, outcomes[first + i]));
+        }
+    }
+
+    /*
+     * Store the update counts of a batch as the outcomes of the records it
+     * wrote
+     */
+    private static void record(int[] counts, List<Integer> rows, int[] outcomes, int first) {
+        for (int i = 0; i < counts.length; i++) {
+            outcomes[first + rows.get(i)] = counts[i] == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, counts[i]);
+        }
+    }
+
+    /*
+     * Update a record to the marks. Record fields are extracted from the method
+     * parameter, which is a Student object. A record that carries a version
+     * is only written if the stored record is still at that version.
+     */
+    private int updateStudent(Student p) throws QueryException {
+        boolean versioned = p.getVersion() != Student.NO_VERSION;
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(versioned ? Query.UPDATE_VERSIONED : Query.UPDATE);
+            // insert student attributes into prepared statement
+            try {
+                ps.setString(6, p.getStudentID());
+                ps.setInt(1, p.getAssignment1());
+                ps.setInt(2, p.getAssignment2());
+                ps.setInt(3, p.getExam());
+                ps.setInt(4, p.getTotal());
+                ps.setString(5, p.getGrade());
+                if (versioned) {
+                    ps.setInt(7, p.getVersion());
+                }
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to paramaterise selection query", e));
             }
-            return results;
-        } catch (SQLException e) {
-            throw (new QueryException("Unable to execute selection query", e));
+            // update the new entry, noting the change; returns # of rows updated
+            Connection connection = pc.getConnection();
+            int n;
+            long before = 0;
+            long after = 0;
+            try {
+                connection.setAutoCommit(false);
+                before = lockChanges(pc);
+                n = ps.executeUpdate();
+                if (n > 0) {
+                    after = changeCount(pc);
+                    connection.commit();
+                } else {
+                    // nothing was written, so the change count is left as it was
+                    connection.rollback();
+                }
+            } catch (SQLException e) {
+                throw rollback(connection, new QueryException("Unable to perform update command", e));
+            } catch (QueryException e) {
+                throw rollback(connection, e);
+            }
+            restoreAutoCommit(connection);
+            committed(before, after);
+            if (n == 0 && versioned) {
+                // Tell a record that has been updated since it was read from
+                // one that does not exist
+                Student current = selectById(pc, p.getStudentID());
+                if (current != null) {
+                    throw (new ConcurrentUpdateException("Student " + p.getStudentID()
+                            + " has been updated by another user", current));
+                }
+            }
+            return n;
         }
     }
-    
+
     /*
-     * Select people by range
+     * Read a record on a leased connection, or return null if there is none
      */
-    private List< Student> getStudentsByRange(String rangeFrom, String rangeTo) throws QueryException {
+    private Student selectById(PooledConnection pc, String id) throws QueryException {
         // Look up prepared statement
-        PreparedStatement ps = statements.get(Query.RANGE);
+        PreparedStatement ps = pc.statement(Query.BY_ID);
         try {
-            // Insert range into prepared statement
-            ps.setInt(1, Integer.parseInt(rangeFrom));
-            ps.setInt(2, Integer.parseInt(rangeTo));
+            parameterise(Query.BY_ID, ps, id);
         } catch (SQLException e) {
             throw (new QueryException("Unable to paramaterise selection query", e));
         }
-        // executeQuery returns ResultSet containing matching entries
         try (ResultSet resultSet = ps.executeQuery()) {
-            List<Student> results = new ArrayList<>();
-            while (resultSet.next()) {
-                results.add(createStudent(resultSet));
-            }
-            return results;
+            return resultSet.next() ? createStudent(resultSet) : null;
         } catch (SQLException e) {
             throw (new QueryException("Unable to execute selection query", e));
         }
     }
     
     /*
-     * Select people by grade and present in order of increasing total mark
+     * Update a grade record to the marks. Record fields are extracted from the 
+     * method parameter, which is a Student object. 
      */
-    private List< Student> getStudentsByGrade(String grade) throws QueryException {
-        // Look up prepared statement
-        PreparedStatement ps = statements.get(Query.GRADE);
-        try {
-            // Insert last name into prepared statement
-            ps.setString(1, grade);
-        } catch (SQLException e) {
-            throw (new QueryException("Unable to paramaterise selection query", e));
-        }
-        // executeQuery returns ResultSet containing matching entries
-        try (ResultSet resultSet = ps.executeQuery()) {
-            List<Student> results = new ArrayList<>();
-            while (resultSet.next()) {
-                results.add(createStudent(resultSet));
+    private int updateCurrentGrade(Student p) throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.UPDATE_CURRENT_GREADE);
+            // update student grade attributes into prepared statement
+            String grade = gradeDetermination(p.getTotal(),p.getAssignment1(),p.getAssignment2(),p.getExam());
+            try {
+                ps.setString(3, p.getStudentID());
+                ps.setString(1, grade);
+                ps.setString(2, grade);
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to paramaterise selection query", e));
             }
-            return results;
-        } catch (SQLException e) {
-            throw (new QueryException("Unable to execute selection query", e));
+            // update the new entry, noting the change; returns # of rows updated
+            Connection connection = pc.getConnection();
+            int n;
+            long before = 0;
+            long after = 0;
+            try {
+                connection.setAutoCommit(false);
+                before = lockChanges(pc);
+                n = ps.executeUpdate();
+                if (n > 0) {
+                    after = changeCount(pc);
+                    connection.commit();
+                } else {
+                    // nothing was written, so the change count is left as it was
+                    connection.rollback();
+                }
+            } catch (SQLException e) {
+                throw rollback(connection, new QueryException("Unable to perform update current grade command", e));
+            } catch (QueryException e) {
+                throw rollback(connection, e);
+            }
+            restoreAutoCommit(connection);
+            committed(before, after);
+            return n;
         }
     }
     
+    /**
+     * Recalculate the grades of all records in the marks, using the regrade
+     * mode that has been set.
+     * @return a summary containing the regraded records, the number of
+     * records read, written and changed, and the grade transitions
+     * @throws QueryException 
+     */
+    public RegradeSummary regradeAll() throws QueryException {
+        startChanges();
+        Regrade mode = regrade;
+        RegradeSummary summary;
+        switch ( mode ) {
+            case BATCH:
+                summary = updateAllGradesInBatches(false);
+                break;
+            case INCREMENTAL:
+                summary = updateAllGradesInBatches(true);
+                break;
+            case PARALLEL:
+                summary = updateAllGradesInParallel();
+                break;
+            case SERVER_SIDE:
+                summary = updateAllGradesInDatabase();
+                break;
+            default:
+                summary = updateAllGrades();
+        }
+        // The other modes publish each record whose grade they changed as it
+        // is committed; the database does not say which records it changed
+        if ( mode == Regrade.SERVER_SIDE ) {
+            changed( Query.UPDATE_ALL_GRADE, null, summary.getRowsUpdated() );
+        }
+        return summary;
+    }
+
     /*
-     * Update a record to the marks. Record fields are extracted from the method
-     * parameter, which is a Student object. 
+     * Publish a change made by a command that wrote n records, unless n is 0
      */
-    private int updateStudent(Student p) throws QueryException {
+    void changed(Query q, Student p, long n) {
+        MarkEventBus bus = events;
+        if ( bus != null && n > 0 ) {
+            bus.publish( q, p );
+        }
+    }
+
+    /*
+     * Lock the change count in the transaction open on a leased connection,
+     * before the transaction writes records, returning the count. The count
+     * stays locked until the transaction ends, so the changes counted by the
+     * triggers in the meantime are those of the transaction alone.
+     */
+    long lockChanges(PooledConnection pc) throws SQLException, QueryException {
+        pc.statement(Query.LOCK_CHANGES).execute();
+        return changeCount(pc);
+    }
+
+    /*
+     * Read the change count in the transaction open on a leased connection
+     */
+    long changeCount(PooledConnection pc) throws SQLException, QueryException {
+        try (ResultSet resultSet = pc.statement(Query.CHANGES).executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /*
+     * Start noting the changes committed by a command performed on the
+     * calling thread
+     */
+    private void startChanges() {
+        changes.set(new Changes());
+    }
+
+    /*
+     * Note the changes committed by a transaction, given the change counts
+     * before and after them; if the count did not move nothing was changed
+     */
+    private void committed(long before, long after) {
+        Changes c = changes.get();
+        if (c != null && after > before) {
+            c.add(before, after);
+        }
+    }
+
+    /*
+     * The changes committed by the last command performed on the calling
+     * thread, which are empty if it changed nothing
+     */
+    Changes lastChanges() {
+        Changes c = changes.get();
+        return c == null ? new Changes() : c;
+    }
+
+    /*
+     * Update all student grade records to the marks. Record fields are extracted 
+     * from the method parameter, which is a Student object. 
+     */
+    private RegradeSummary updateAllGrades() throws QueryException{
+        int scanned = 0;
+        int updated = 0;
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.ALL);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                // Go through every records in marks
+                while (resultSet.next()) {
+                    pc.checkCancelled();
+                    String id = resultSet.getString("studentID");
+                    int asn1 = resultSet.getInt("assignment1");
+                    int asn2 = resultSet.getInt("assignment2");
+                    int exam = resultSet.getInt("exam");
+                    int total = resultSet.getInt("total");
+                    String stored = resultSet.getString("grade");
+                    int version = resultSet.getInt("version");
+                    String grade = gradeDetermination(total, asn1, asn2, exam);
+                    scanned++;
+                    // update student grade attributes into prepared statement
+                    PreparedStatement psu = pc.statement(Query.UPDATE_CURRENT_GREADE);
+                    try {
+                        psu.setString(3, id);
+                        psu.setString(1, grade);
+                        psu.setString(2, grade);
+                    } catch (SQLException e) {
+                        throw (new QueryException("Unable to paramaterise calculate all query", e));
+                    }
+                    // Update every enties
+                    int n;
+                    try {
+                        n = psu.executeUpdate();
+                    } catch (SQLException e) {
+                        throw (new QueryException("Unable to perform calculate all grade command", e));
+                    }
+                    updated += n;
+                    // the record is committed as it is written; grade codes
+                    // ignore the padding of fixed width grade columns
+                    if (Grade.codeOf(stored) != Grade.codeOf(grade)) {
+                        changed(Query.UPDATE_ALL_GRADE,
+                                new Student(id, asn1, asn2, exam, total, grade, version + 1), n);
+                    }
+                }
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute selection all ruery", e));
+            }
+            // each record has been committed on its own, so its change cannot
+            // be told from those of other clients and is not noted
+        }
+        // The connection is released before the marks are selected again
+        return new RegradeSummary(getAllStudents(), scanned, updated);
+    }
+
+    /*
+     * Update all student grade records to the marks, sending the updates in
+     * batches of batchSize within a single transaction. The regraded records
+     * are kept as they are read, so the marks are not selected a second time.
+     * If changedOnly is set, records whose stored grade matches the calculated
+     * grade are not written.
+     */
+    private RegradeSummary updateAllGradesInBatches(boolean changedOnly) throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            return regradeRows(pc, pc.statement(Query.ALL), changedOnly);
+        }
+    }
+
+    /*
+     * Regrade the records selected by a prepared selection statement on a
+     * leased connection, as a single transaction. Grades are written in
+     * batches; when changedOnly is set only records whose grade has changed
+     * are written.
+     */
+    private RegradeSummary regradeRows(PooledConnection pc, PreparedStatement ps,
+            boolean changedOnly) throws QueryException {
         // Look up prepared statement
-        PreparedStatement ps = statements.get(Query.UPDATE);
-        // insert student attributes into prepared statement
+        PreparedStatement psu = pc.statement(Query.UPDATE_ALL_GRADE);
+        List<Student> results = new ArrayList<>();
+        List<Student> regradedRecords = new ArrayList<>();
+        Map<String, Integer> transitions = new TreeMap<>();
+        int changed = 0;
+        int updated = 0;
+        boolean locked = false;
+        long before = 0;
+        long after = 0;
+        Connection connection = pc.getConnection();
         try {
-            ps.setString(6, p.getStudentID());
-            ps.setInt(1, p.getAssignment1());
-            ps.setInt(2, p.getAssignment2());
-            ps.setInt(3, p.getExam());
-            ps.setInt(4, p.getTotal());
-            ps.setString(5, p.getGrade());
+            connection.setAutoCommit(false);
+            ps.setFetchSize(fetchSize);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                int pending = 0;
+                while (resultSet.next()) {
+                    pc.checkCancelled();
+                    Student p = createStudent(resultSet);
+                    byte code = GradeEngine.grade(p.getTotal(), p.getAssignment1(), p.getAssignment2(), p.getExam());
+                    String grade = Grade.of(code).name();
+                    // grade codes ignore the padding of fixed width grade columns
+                    boolean regraded = Grade.codeOf(p.getGrade()) != code;
+                    Student r = new Student(p.getStudentID(), p.getAssignment1(), p.getAssignment2(),
+                            p.getExam(), p.getTotal(), grade, regraded ? p.getVersion() + 1 : p.getVersion());
+                    results.add(r);
+                    if (regraded) {
+                        regradedRecords.add(r);
+                        String stored = p.getGrade() == null ? "" : p.getGrade().trim();
+                        changed++;
+                        transitions.merge(stored + " -> " + grade, 1, Integer::sum);
+                    } else if (changedOnly) {
+                        continue;
+                    }
+                    psu.setString(1, grade);
+                    psu.setString(2, grade);
+                    psu.setString(3, p.getStudentID());
+                    psu.addBatch();
+                    if (++pending == batchSize) {
+                        // the change count is locked by the first write, so
+                        // parallel regrades read and grade at once until then
+                        if (!locked) {
+                            before = lockChanges(pc);
+                            locked = true;
+                        }
+                        updated += countUpdates(psu.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    if (!locked) {
+                        before = lockChanges(pc);
+                        locked = true;
+                    }
+                    updated += countUpdates(psu.executeBatch());
+                }
+            }
+            if (updated > 0) {
+                after = changeCount(pc);
+                connection.commit();
+            } else {
+                // nothing was written, so the change count is left as it was
+                connection.rollback();
+            }
         } catch (SQLException e) {
-            throw (new QueryException("Unable to paramaterise selection query", e));
+            throw rollback(connection, new QueryException("Unable to perform calculate all grade command", e), psu);
+        } catch (QueryException e) {
+            throw rollback(connection, e, psu);
+        }
+        restoreAutoCommit(connection);
+        committed(before, after);
+        for (Student r : regradedRecords) {
+            changed(Query.UPDATE_ALL_GRADE, r, 1);
         }
-        // update the new entry; returns # of rows updated
+        return new RegradeSummary(results, results.size(), updated, changed, transitions);
+    }
+
+    /*
+     * Regrade all records as in INCREMENTAL mode, with the marks split into
+     * ranges of student IDs of about the same size that are regraded at once
+     * on a fork-join pool. Each range is regraded on its own pooled connection
+     * and committed as its own transaction; if one range fails the others may
+     * already be committed, which is harmless as regrading is idempotent. The
+     * grades written, and the counts and transitions reported, are the same as
+     * those of the sequential modes; the records are returned in student ID
+     * order.
+     */
+    private RegradeSummary updateAllGradesInParallel() throws QueryException {
+        int n = count(Query.ALL);
+        int partitions = Math.min(Math.min(parallelism, pool.getMaxSize()), Math.max(1, n / batchSize));
+        if (partitions < 2) {
+            return updateAllGradesInBatches(true);
+        }
+        // the first key of each range but the first, which is open below
+        List<String> bounds = new ArrayList<>();
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.KEY_AT);
+            try {
+                for (int i = 1; i < partitions; i++) {
+                    ps.setInt(1, (int) ((long) n * i / partitions));
+                    try (ResultSet resultSet = ps.executeQuery()) {
+                        if (resultSet.next()) {
+                            bounds.add(resultSet.getString(1));
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to partition the marks", e));
+            }
+        }
+        // The ranges are regraded as part of the caller's task, so that
+        // cancelling the task cancels them too, and their changes are noted
+        // as the caller's
+        QueryTask task = QueryTask.current() != null ? QueryTask.current() : new QueryTask();
+        Changes noted = changes.get();
+        ForkJoinPool workers = new ForkJoinPool(bounds.size() + 1);
         try {
-            return ps.executeUpdate();
-        } catch (SQLException e) {
-            throw (new QueryException("Unable to perform update command", e));
+            List<ForkJoinTask<RegradeSummary>> tasks = new ArrayList<>();
+            for (int i = 0; i <= bounds.size(); i++) {
+                String lower = i == 0 ? null : bounds.get(i - 1);
+                String upper = i == bounds.size() ? null : bounds.get(i);
+                tasks.add(workers.submit(task.wrap(() -> {
+                    changes.set(noted);
+                    try {
+                        return regradePartition(lower, upper);
+                    } finally {
+                        changes.remove();
+                    }
+                })));
+            }
+            List<RegradeSummary> summaries = new ArrayList<>();
+            for (ForkJoinTask<RegradeSummary> t : tasks) {
+                summaries.add(t.get());
+            }
+            return RegradeSummary.merge(summaries);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QueryException) {
+                throw (QueryException) e.getCause();
+            }
+            throw (new QueryException("Unable to perform calculate all grade command", e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.cancel();
+            throw (new QueryException("Query cancelled", e));
+        } finally {
+            workers.shutdown();
         }
     }
-    
+
     /*
-     * Update a grade record to the marks. Record fields are extracted from the 
-     * method parameter, which is a Student object. 
+     * Regrade the records with student IDs from lower (inclusive) to upper
+     * (exclusive), which are read and returned in student ID order. A null
+     * bound leaves the range open at that end.
      */
-    private int updateCurrentGrade(Student p) throws QueryException {
-        // Look up prepared statement
-        PreparedStatement ps = statements.get(Query.UPDATE_CURRENT_GREADE);
-        // update student grade attributes into prepared statement
-        String grade = gradeDetermination(p.getTotal(),p.getAssignment1(),p.getAssignment2(),p.getExam());
+    private RegradeSummary regradePartition(String lower, String upper) throws QueryException {
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(upper == null ? Query.PARTITION_TAIL : Query.PARTITION);
+            try {
+                ps.setString(1, lower == null ? "" : lower);
+                if (upper != null) {
+                    ps.setString(2, upper);
+                }
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to paramaterise selection query", e));
+            }
+            return regradeRows(pc, ps, true);
+        }
+    }
+
+    /*
+     * Update all student grade records to the marks with a single update 
+     * command, so that grades are calculated by the database and no records
+     * are transferred until the regraded marks are selected.
+     */
+    private RegradeSummary updateAllGradesInDatabase() throws QueryException {
+        int updated;
+        try (PooledConnection pc = pool.acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.UPDATE_ALL_GRADE_IN_DATABASE);
+            Connection connection = pc.getConnection();
+            long before = 0;
+            long after = 0;
+            try {
+                connection.setAutoCommit(false);
+                before = lockChanges(pc);
+                updated = ps.executeUpdate();
+                if (updated > 0) {
+                    after = changeCount(pc);
+                    connection.commit();
+                } else {
+                    // nothing was written, so the change count is left as it was
+                    connection.rollback();
+                }
+            } catch (SQLException e) {
+                throw rollback(connection, new QueryException("Unable to perform calculate all grade command", e));
+            } catch (QueryException e) {
+                throw rollback(connection, e);
+            }
+            restoreAutoCommit(connection);
+            committed(before, after);
+        }
+        // The connection is released before the marks are selected again
+        return new RegradeSummary(getAllStudents(), updated, updated);
+    }
+
+    /*
+     * Add up the update counts returned by a batch. Drivers that do not report 
+     * a count for a command return SUCCESS_NO_INFO, which is counted as one.
+     */
+    private static int countUpdates(int[] counts) {
+        int n = 0;
+        for (int c : counts) {
+            if (c == Statement.SUCCESS_NO_INFO) {
+                n++;
+            } else if (c > 0) {
+                n += c;
+            }
+        }
+        return n;
+    }
+
+    /*
+     * Abandon the current transaction on a connection after a failure,
+     * discarding any batch still pending on the given statements, which may
+     * be null, and return the connection to auto-commit mode. A failure to
+     * do so is added to the failure as a suppressed exception; the failure
+     * is returned so that it can be thrown.
+     */
+    private static QueryException rollback(Connection connection, QueryException failure,
+            PreparedStatement... statements) {
+        for (PreparedStatement ps : statements) {
+            try {
+                if (ps != null) {
+                    ps.clearBatch();
+                }
+            } catch (SQLException e) {
+                failure.addSuppressed(e);
+            }
+        }
         try {
-            ps.setString(2, p.getStudentID());
-            ps.setString(1, grade);
+            connection.rollback();
         } catch (SQLException e) {
-            throw (new QueryException("Unable to paramaterise selection query", e));
+            failure.addSuppressed(e);
         }
-        // update the new entry; returns # of rows updated
         try {
-            return ps.executeUpdate();
+            connection.setAutoCommit(true);
         } catch (SQLException e) {
-            throw (new QueryException("Unable to perform update current grade command", e));
+            failure.addSuppressed(e);
         }
+        return failure;
     }
-    
+
     /*
-     * Update all student grade records to the marks. Record fields are extracted 
-     * from the method parameter, which is a Student object. 
+     * Return the connection to auto-commit mode after a transaction has been
+     * committed.
      */
-    private List< Student> updateAllGrades() throws QueryException{
-        // Look up prepared statement
-        PreparedStatement ps = statements.get(Query.ALL);
-        try (ResultSet resultSet = ps.executeQuery()) {
-            List<Student> results = new ArrayList<>();
-            // Go through every records in marks
-            while (resultSet.next()) {
-                String id = resultSet.getString("studentID");
-                int asn1 = resultSet.getInt("assignment1");
-                int asn2 = resultSet.getInt("assignment2");
-                int exam = resultSet.getInt("exam");
-                int total = resultSet.getInt("total");
-                String grade = gradeDetermination(total, asn1, asn2, exam);
-                // update student grade attributes into prepared statement
-                PreparedStatement psu = statements.get(Query.UPDATE_CURRENT_GREADE);
-                try {
-                    psu.setString(2, id);
-                    psu.setString(1, grade);
-                } catch (SQLException e) {
-                    throw (new QueryException("Unable to paramaterise calculate all query", e));
-                }
-                // Update every enties
-                try {
-                    psu.executeUpdate();
-                } catch (SQLException e) {
-                    throw (new QueryException("Unable to perform calculate all grade command", e));
-                }
-            }
-            return getAllStudents();   
+    private static void restoreAutoCommit(Connection connection) throws QueryException {
+        try {
+            connection.setAutoCommit(true);
         } catch (SQLException e) {
-            throw (new QueryException("Unable to execute selection all ruery", e));
+            throw (new QueryException("Unable to restore auto-commit after the transaction was committed", e));
         }
     }
     
+    /*
+     * Build the near boundary selection: a range of total marks at and below
+     * each boundary, tagged with the boundary. Each range can be read from the
+     * index on total marks.
+     */
+    private static String nearBoundary() {
+        StringBuilder sql = new StringBuilder();
+        for (int boundary : GradeEngine.BOUNDARIES) {
+            if (sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(boundary).append(" AS Boundary, Marks.* FROM Marks")
+               .append(" WHERE Total BETWEEN ? AND ").append(boundary);
+        }
+        return sql.append(" ORDER BY Boundary DESC, Total DESC").toString();
+    }
+
+    /*
+     * Build the statement run by the database after each record N is written
+     * in a total mode, which corrects the record only if it is inconsistent
+     * so that the update it makes does not trigger another. CLIENT mode runs
+     * no statement.
+     */
+    private static String derivation(TotalMode m) {
+        if ( m == TotalMode.CLIENT ) {
+            return null;
+        }
+        String total = derivedTotal("N.");
+        String set = "Total = " + total;
+        String inconsistent = "Total IS NULL OR Total <> " + total;
+        if ( m == TotalMode.DERIVED_GRADE ) {
+            String grade = derivedGrade("N.");
+            set += ", Grade = " + grade;
+            inconsistent += " OR Grade IS NULL OR Grade <> " + grade;
+        }
+        return "UPDATE Marks SET " + set + " WHERE StudentID = N.StudentID AND (" + inconsistent + ")";
+    }
+
+    /*
+     * The sum of the marks of a record as an SQL expression, missing marks
+     * counting as zero; the columns are prefixed with the given qualifier
+     */
+    private static String derivedTotal(String row) {
+        return "(COALESCE(" + row + "Assignment1, 0) + COALESCE(" + row + "Assignment2, 0)"
+                + " + COALESCE(" + row + "Exam, 0))";
+    }
+
+    /*
+     * The grade earned by the marks of a record as an SQL expression
+     */
+    private static String derivedGrade(String row) {
+        return gradeCase(derivedTotal(row), "COALESCE(" + row + "Assignment1, 0)",
+                "COALESCE(" + row + "Assignment2, 0)", "COALESCE(" + row + "Exam, 0)");
+    }
+
+    /*
+     * Build the SQL CASE expression equivalent to GradeEngine.grade() from SQL
+     * expressions for the total, assignment 1, assignment 2 and exam marks. The
+     * WHEN clauses are tested in the same order as the rules of GradeEngine.
+     */
+    static String gradeCase(String total, String asn1, String asn2, String exam) {
+        return "CASE"
+            + " WHEN " + total + " >= 85 THEN 'HD'"
+            + " WHEN " + total + " >= 75 THEN 'D'"
+            + " WHEN " + total + " >= 65 THEN 'C'"
+            + " WHEN " + total + " >= 50 THEN 'P'"
+            + " WHEN " + total + " >= 45 AND " + asn1 + " < 10 AND " + asn2 + " >= 15 AND " + exam + " >= 25 THEN 'SA'"
+            + " WHEN " + total + " >= 45 AND " + asn2 + " < 15 AND " + asn1 + " >= 10 AND " + exam + " >= 25 THEN 'SA'"
+            + " WHEN " + total + " >= 45 AND " + asn1 + " > 10 AND " + asn2 + " < 15 AND " + exam + " < 25 THEN 'SE'"
+            + " WHEN " + asn1 + " = 0 AND " + asn2 + " = 0 AND " + exam + " = 0 THEN 'AF'"
+            + " ELSE 'F' END";
+    }
+
     /*
      * Input the total mark of a student and output the grade of this student base
-     * on the rules of grade determination.
-     */
-    private String gradeDetermination(Integer total, Integer asn1, Integer asn2, Integer exam){
-        String grade = "?";
-        if (total>=85) {
-            grade = "HD";
-        }else if (total>=75 && total<85){
-            grade = "D";
-        }else if (total>=65 && total<75){
-            grade = "C";
-        }else if(total>=50 && total<65){
-            grade = "P";
-        }else if(total<50){
-            if (total>=45 && asn1<10 && asn2>=15 && exam>=25) {
-                grade = "SA";
-            }else if (total>=45 && asn2<15 && asn1>=10 && exam>=25) {
-                grade = "SA";
-            }else if (total>=45 && asn1>10 && asn2<15 && exam<25) {
-                grade = "SE";
-            }else if (asn1==0 && asn2==0 && exam==0){
-                grade = "AF";
-            }else{
-                grade = "F";
-            }
-        }
-        return grade;
+     * on the rules of grade determination, which are implemented by GradeEngine.
+     */
+    static String gradeDetermination(int total, int asn1, int asn2, int exam){
+        return GradeEngine.gradeOf(total, asn1, asn2, exam).name();
     }
     
 }
@@ -0,0 +1,71 @@
+package markassistancesystem.model;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * A data container for a change made to the marks by a successful command.
+ * No setters are provided, as attributes are read-only.
+ * <p>
+ * A change carries the record as written: for UPDATE, the record given to
+ * the command; for UPDATE_CURRENT_GREADE, the record given to the command
+ * with the grade that was written, the marks themselves being unchanged; for
+ * UPDATE_ALL_GRADE, a record whose grade it changed; and for an import, a
+ * record it updated (UPDATE) or inserted (INSERT). Records written by an
+ * import do not carry their version. The server-side UPDATE_ALL_GRADE is a
+ * single statement that does not say which records it changed, so it carries
+ * no record, and consumers must treat every record as changed.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkChangeEvent {
+
+    private final long sequence;
+    private final long time;
+    private final Query query;
+    private final Student student;
+
+    /**
+     * Create a change event.
+     *
+     * @param sequence the position of the change in the stream of changes
+     * @param time the time of the change in milliseconds since the epoch
+     * @param query the command that made the change
+     * @param student the record as written, or null if any record may have
+     * changed
+     */
+    public MarkChangeEvent(long sequence, long time, Query query, Student student) {
+        this.sequence = sequence;
+        this.time = time;
+        this.query = query;
+        this.student = student;
+    }
+
+    /**
+     * @return the position of the change in the stream of changes; changes
+     * are numbered consecutively in the order in which they were published
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the time of the change in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the command that made the change
+     */
+    public Query getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the record as written, or null if any record may have changed
+     */
+    public Student getStudent() {
+        return student;
+    }
+}
@@ -0,0 +1,293 @@
+package markassistancesystem.model;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * MarkChangeLog is an append-only file of the changes made to the marks, from
+ * which consumers that keep their own copy of the marks, or of figures
+ * derived from them, can catch up after a restart. It is usually subscribed
+ * to a MarkEventBus with append.
+ * <p>
+ * The file is binary: a four byte identifier followed by one record per
+ * change, holding the sequence, time and command of the change and, if the
+ * change is to one record, the student ID (UTF-8), the marks and the grade
+ * code. A record is written with a single write, and a record left incomplete
+ * by a crash is discarded when the log is next opened. Commands are stored as
+ * codes of their own, which are never reused, so the Query enum can change
+ * without changing the meaning of the logs already written; the identifier
+ * is changed whenever an existing code is.
+ * <p>
+ * How soon an appended change is forced to the storage device is set with
+ * setSync: only when the log is closed (CLOSE, the default), once the
+ * changes published so far have all been appended (BATCH, when endBatch is
+ * called as a subscriber of a MarkEventBus catches up), or after every
+ * change (APPEND). Changes not yet forced may be lost if the machine fails,
+ * though not if only the process does.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkChangeLog implements AutoCloseable {
+
+    /**
+     * When appended changes are forced to the storage device
+     */
+    public enum Sync {
+        CLOSE, BATCH, APPEND
+    }
+
+    // The first four bytes of a change log: "MCL1"
+    private static final int MAGIC = 0x4d434c31;
+
+    // The flags of a record
+    private static final byte HAS_STUDENT = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The code stored for each command that is logged, and the command of
+    // each code. The codes are the positions the commands had in the Query
+    // enum when the log was introduced, when it stored those positions.
+    private static final Map<Query, Byte> CODES = new EnumMap<>(Query.class);
+    private static final Query[] COMMANDS = new Query[256];
+
+    static {
+        code(Query.UPDATE, 2);
+        code(Query.UPDATE_CURRENT_GREADE, 6);
+        code(Query.UPDATE_ALL_GRADE, 7);
+        code(Query.INSERT, 16);
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private long lastSequence = -1;
+    private Sync sync = Sync.CLOSE;
+    // Whether changes have been written since the file was last forced
+    private boolean dirty = false;
+
+    /**
+     * Open a change log, creating it if it does not exist.
+     * @param file the file of the log
+     * @throws IOException if the file cannot be opened or is not a change log
+     */
+    public MarkChangeLog(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        try {
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(4).putInt(0, MAGIC);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+            // Find the last change, and drop an incomplete record after it
+            long end = replay(Long.MIN_VALUE, e -> lastSequence = e.getSequence());
+            channel.truncate(end);
+            channel.position(end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the sequence of the last change in the log, or -1 if the log is
+     * empty
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return when appended changes are forced to the storage device
+     */
+    public synchronized Sync getSync() {
+        return sync;
+    }
+
+    /**
+     * Set when appended changes are forced to the storage device.
+     * @param sync CLOSE, BATCH or APPEND
+     */
+    public synchronized void setSync(Sync sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Append a change to the log. The change is written to the file, and
+     * forced to the storage device if the log is synced on every APPEND.
+     * @param e the change
+     * @throws UncheckedIOException if the change cannot be written
+     * @throws IllegalArgumentException if the command of the change has no
+     * code
+     */
+    public synchronized void append(MarkChangeEvent e) throws UncheckedIOException, IllegalArgumentException {
+        Byte code = CODES.get(e.getQuery());
+        if (code == null) {
+            throw new IllegalArgumentException(e.getQuery() + " cannot be logged");
+        }
+        Student s = e.getStudent();
+        byte[] id = s == null ? null : s.getStudentID().getBytes(StandardCharsets.UTF_8);
+        int size = 18 + (id == null ? 0 : 2 + id.length + 17);
+        if (record.capacity() < size) {
+            record = ByteBuffer.allocate(size);
+        }
+        record.clear();
+        record.putLong(e.getSequence()).putLong(e.getTime()).put(code);
+        if (s == null) {
+            record.put((byte) 0);
+        } else {
+            record.put(HAS_STUDENT).putShort((short) id.length).put(id)
+                    .putInt(s.getAssignment1()).putInt(s.getAssignment2()).putInt(s.getExam())
+                    .putInt(s.getTotal()).put(Grade.codeOf(s.getGrade()));
+        }
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            dirty = true;
+            if (sync == Sync.APPEND) {
+                force();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        lastSequence = e.getSequence();
+    }
+
+    /**
+     * End a batch of changes, forcing them to the storage device if the log
+     * is synced per BATCH. A subscriber of a MarkEventBus calls this when it
+     * has been given every change published so far.
+     * @throws UncheckedIOException if the changes cannot be forced
+     */
+    public synchronized void endBatch() throws UncheckedIOException {
+        if (sync == Sync.BATCH) {
+            try {
+                force();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Force the changes appended so far to the storage device.
+     * @throws IOException if the changes cannot be forced
+     */
+    public synchronized void force() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    /**
+     * Read the changes in the log from a sequence onwards, in order. Changes
+     * appended while the log is being read may or may not be read.
+     * @param from the sequence of the first change wanted
+     * @param c the consumer of the changes
+     * @return the length of the log up to the end of the last complete
+     * record
+     * @throws IOException if the log cannot be read or is not a change log
+     */
+    public long replay(long from, Consumer<? super MarkChangeEvent> c) throws IOException {
+        return replay(file, from, c);
+    }
+
+    /**
+     * Read the changes in a change log from a sequence onwards, in order,
+     * without opening the log for writing. The log may be being appended to
+     * by another process.
+     * @param file the file of the log
+     * @param from the sequence of the first change wanted
+     * @param c the consumer of the changes
+     * @return the length of the log up to the end of the last complete
+     * record
+     * @throws IOException if the log cannot be read or is not a change log
+     */
+    public static long replay(Path file, long from, Consumer<? super MarkChangeEvent> c) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                DataInputStream data = new DataInputStream(
+                        new BufferedInputStream(Channels.newInputStream(in), BUFFER_SIZE))) {
+            if (data.readInt() != MAGIC) {
+                throw new IOException(file + " is not a change log");
+            }
+            long end = 4;
+            while (true) {
+                MarkChangeEvent e;
+                int size;
+                try {
+                    long seq = data.readLong();
+                    long time = data.readLong();
+                    Query q = COMMANDS[data.readUnsignedByte()];
+                    if (q == null) {
+                        throw new IOException(file + " holds an unknown command");
+                    }
+                    Student s = null;
+                    size = 18;
+                    if (data.readByte() == HAS_STUDENT) {
+                        byte[] id = new byte[data.readUnsignedShort()];
+                        data.readFully(id);
+                        int asn1 = data.readInt();
+                        int asn2 = data.readInt();
+                        int exam = data.readInt();
+                        int total = data.readInt();
+                        Grade g = Grade.of(data.readByte());
+                        s = new Student(new String(id, StandardCharsets.UTF_8), asn1, asn2, exam, total,
+                                g == null ? null : g.name());
+                        size += 2 + id.length + 17;
+                    }
+                    e = new MarkChangeEvent(seq, time, q, s);
+                } catch (EOFException ex) {
+                    // the end of the log, or of a record left incomplete
+                    return end;
+                }
+                end += size;
+                if (e.getSequence() >= from) {
+                    c.accept(e);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is not a change log", e);
+        }
+    }
+
+    /**
+     * Force the changes appended to the storage device and close the log.
+     * @throws IOException if the changes cannot be forced or the file cannot
+     * be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void code(Query q, int code) {
+        CODES.put(q, (byte) code);
+        COMMANDS[code] = q;
+    }
+}
@@ -0,0 +1,257 @@
+package markassistancesystem.model;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MarkColumns holds student grade records column by column in primitive
+ * arrays, rather than as a list of Student objects. Marks are held as ints,
+ * grades as one byte Grade codes and student IDs packed end to end in a single
+ * char array, so a record costs a few tens of bytes and no objects. Student
+ * objects are created only when a record is asked for with get() or through
+ * the asList() view, and carry the version the record was read at, so they
+ * can be passed to a versioned update.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkColumns {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int n = 0;
+    private int[] assignment1;
+    private int[] assignment2;
+    private int[] exam;
+    private int[] total;
+    private byte[] grade;
+    private int[] version;
+    // The ID of record i is idChars[idEnd[i-1] .. idEnd[i])
+    private char[] idChars;
+    private int[] idEnd;
+
+    /**
+     * Create an empty store
+     */
+    public MarkColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty store with room for a number of records
+     * @param capacity the expected number of records
+     */
+    public MarkColumns(int capacity) {
+        capacity = Math.max(1, capacity);
+        assignment1 = new int[capacity];
+        assignment2 = new int[capacity];
+        exam = new int[capacity];
+        total = new int[capacity];
+        grade = new byte[capacity];
+        version = new int[capacity];
+        idEnd = new int[capacity];
+        idChars = new char[capacity * 8];
+    }
+
+    /**
+     * Load every row of a result set of marks records.
+     * @param rs the result set, positioned before its first row
+     * @return a store holding the rows
+     * @throws SQLException 
+     */
+    public static MarkColumns load(ResultSet rs) throws SQLException {
+        MarkColumns m = new MarkColumns();
+        while (rs.next()) {
+            m.add(rs);
+        }
+        return m;
+    }
+
+    /**
+     * Add the current row of a result set of marks records.
+     * @param rs the result set, positioned on a row
+     * @throws SQLException 
+     */
+    public void add(ResultSet rs) throws SQLException {
+        add(rs.getString("studentID"), rs.getInt("assignment1"), rs.getInt("assignment2"),
+                rs.getInt("exam"), rs.getInt("total"), Grade.codeOf(rs.getString("grade")),
+                rs.getInt("version"));
+    }
+
+    /**
+     * Add a record whose version is not known.
+     * @param studentID record identifier
+     * @param asn1 assignment1 grade
+     * @param asn2 assignment2 grade
+     * @param exm exam grade
+     * @param tot total grade
+     * @param code the Grade code of the student grade
+     */
+    public void add(String studentID, int asn1, int asn2, int exm, int tot, byte code) {
+        add(studentID, asn1, asn2, exm, tot, code, Student.NO_VERSION);
+    }
+
+    /**
+     * Add a record.
+     * @param studentID record identifier
+     * @param asn1 assignment1 grade
+     * @param asn2 assignment2 grade
+     * @param exm exam grade
+     * @param tot total grade
+     * @param code the Grade code of the student grade
+     * @param ver the version of the record, or Student.NO_VERSION
+     */
+    public void add(String studentID, int asn1, int asn2, int exm, int tot, byte code, int ver) {
+        if (n == total.length) {
+            grow();
+        }
+        int start = n == 0 ? 0 : idEnd[n - 1];
+        int length = studentID == null ? 0 : studentID.length();
+        if (start + length > idChars.length) {
+            idChars = Arrays.copyOf(idChars, Math.max(idChars.length * 2, start + length));
+        }
+        if (length > 0) {
+            studentID.getChars(0, length, idChars, start);
+        }
+        idEnd[n] = start + length;
+        assignment1[n] = asn1;
+        assignment2[n] = asn2;
+        exam[n] = exm;
+        total[n] = tot;
+        grade[n] = code;
+        version[n] = ver;
+        n++;
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @param i record position
+     * @return record identifier
+     */
+    public String getStudentID(int i) {
+        check(i);
+        int start = i == 0 ? 0 : idEnd[i - 1];
+        return new String(idChars, start, idEnd[i] - start);
+    }
+
+    /**
+     * @param i record position
+     * @return assignment1 grade
+     */
+    public int getAssignment1(int i) {
+        check(i);
+        return assignment1[i];
+    }
+
+    /**
+     * @param i record position
+     * @return assignment2 grade
+     */
+    public int getAssignment2(int i) {
+        check(i);
+        return assignment2[i];
+    }
+
+    /**
+     * @param i record position
+     * @return exam grade
+     */
+    public int getExam(int i) {
+        check(i);
+        return exam[i];
+    }
+
+    /**
+     * @param i record position
+     * @return total grade
+     */
+    public int getTotal(int i) {
+        check(i);
+        return total[i];
+    }
+
+    /**
+     * @param i record position
+     * @return the Grade code of the student grade
+     */
+    public byte getGradeCode(int i) {
+        check(i);
+        return grade[i];
+    }
+
+    /**
+     * @param i record position
+     * @param code the new Grade code of the student grade
+     */
+    public void setGradeCode(int i, byte code) {
+        check(i);
+        grade[i] = code;
+    }
+
+    /**
+     * @param i record position
+     * @return the version of the record, or Student.NO_VERSION if it is not
+     * known
+     */
+    public int getVersion(int i) {
+        check(i);
+        return version[i];
+    }
+
+    /**
+     * Create a Student object for a record
+     * @param i record position
+     * @return the record
+     */
+    public Student get(int i) {
+        Grade g = Grade.of(getGradeCode(i));
+        return new Student(getStudentID(i), assignment1[i], assignment2[i], exam[i], total[i],
+                g == null ? null : g.name(), version[i]);
+    }
+
+    /**
+     * @return a read-only list view of the records, which creates a Student
+     * object each time a record is accessed
+     */
+    public List<Student> asList() {
+        return new AbstractList<Student>() {
+            @Override
+            public Student get(int i) {
+                return MarkColumns.this.get(i);
+            }
+
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+    }
+
+    // Helper methods
+
+    private void check(int i) {
+        if (i < 0 || i >= n) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + n);
+        }
+    }
+
+    private void grow() {
+        int capacity = total.length * 2;
+        assignment1 = Arrays.copyOf(assignment1, capacity);
+        assignment2 = Arrays.copyOf(assignment2, capacity);
+        exam = Arrays.copyOf(exam, capacity);
+        total = Arrays.copyOf(total, capacity);
+        grade = Arrays.copyOf(grade, capacity);
+        version = Arrays.copyOf(version, capacity);
+        idEnd = Arrays.copyOf(idEnd, capacity);
+    }
+
+}
@@ -0,0 +1,288 @@
+package markassistancesystem.model;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * MarkEventBus delivers the changes made to the marks to subscribers in the
+ * same process, in the manner of a disruptor: events are written into a ring
+ * buffer whose slots are claimed with a single atomic increment, and each
+ * subscriber follows the ring on its own thread with its own cursor. No lock
+ * is taken by publishers or subscribers.
+ * <p>
+ * Every subscriber is given every event published while it is subscribed,
+ * in order of sequence. A publisher that would overwrite an event that a
+ * subscriber has not yet been given waits for that subscriber, so a slow
+ * subscriber slows publishers rather than missing events; events published
+ * with no subscribers are discarded.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkEventBus {
+
+    private static final Logger LOGGER = Logger.getLogger(MarkEventBus.class.getName());
+
+    // The longest time a waiting publisher or an idle subscriber sleeps
+    // before looking at the ring again, in nanoseconds
+    private static final long MAX_PARK = 1_000_000;
+
+    private final AtomicReferenceArray<MarkChangeEvent> ring;
+    private final int mask;
+    // The sequence of the next event to be published
+    private final AtomicLong next;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // Closed with the bus, once the subscriptions have been closed
+    private final CopyOnWriteArrayList<AutoCloseable> resources = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Create an event bus whose events are numbered from 0.
+     * @param capacity the number of events that can be published ahead of
+     * the slowest subscriber, which must be a power of two
+     * @throws IllegalArgumentException if capacity is not a power of two
+     */
+    public MarkEventBus(int capacity) throws IllegalArgumentException {
+        this(capacity, 0);
+    }
+
+    /**
+     * Create an event bus.
+     * @param capacity the number of events that can be published ahead of
+     * the slowest subscriber, which must be a power of two
+     * @param first the sequence of the first event, such as one more than
+     * the last sequence in a change log
+     * @throws IllegalArgumentException if capacity is not a power of two
+     */
+    public MarkEventBus(int capacity, long first) throws IllegalArgumentException {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        ring = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        next = new AtomicLong(first);
+    }
+
+    /**
+     * Publish a change, waiting while the ring is full.
+     * @param q the command that made the change
+     * @param s the record as written, or null if any record may have changed
+     * @return the sequence of the event
+     * @throws IllegalStateException if the bus has been closed
+     */
+    public long publish(Query q, Student s) throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Event bus is closed");
+        }
+        long seq = next.getAndIncrement();
+        // The slot holds the event published one capacity earlier, which
+        // every subscriber must have been given before it is overwritten
+        long wrap = seq - ring.length();
+        for (int idle = 0; wrap > slowest(wrap); idle++) {
+            backOff(idle);
+        }
+        ring.set((int) seq & mask, new MarkChangeEvent(seq, System.currentTimeMillis(), q, s));
+        for (Subscription sub : subscriptions) {
+            LockSupport.unpark(sub.thread);
+        }
+        return seq;
+    }
+
+    /**
+     * Subscribe to the events published from now on. The consumer is called
+     * on a thread of its own; an exception thrown by it is logged and the
+     * event skipped.
+     * @param name a name for the subscriber, used to name its thread
+     * @param c the consumer of the events
+     * @return the subscription, which is closed to unsubscribe
+     * @throws IllegalStateException if the bus has been closed
+     */
+    public Subscription subscribe(String name, Consumer<? super MarkChangeEvent> c) throws IllegalStateException {
+        return subscribe(name, c, null);
+    }
+
+    /**
+     * Subscribe to the events published from now on, being told at the end
+     * of each batch of events, when the consumer has been given every event
+     * published so far, such as to force a log to disk once per batch. The
+     * consumer and endBatch are called on a thread of their own; an exception
+     * thrown by either is logged.
+     * @param name a name for the subscriber, used to name its thread
+     * @param c the consumer of the events
+     * @param endBatch called at the end of each batch, or null
+     * @return the subscription, which is closed to unsubscribe
+     * @throws IllegalStateException if the bus has been closed
+     */
+    public Subscription subscribe(String name, Consumer<? super MarkChangeEvent> c, Runnable endBatch)
+            throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Event bus is closed");
+        }
+        Subscription sub = new Subscription(name, c, endBatch, next.get() - 1);
+        subscriptions.add(sub);
+        sub.thread.start();
+        return sub;
+    }
+
+    /**
+     * @return the sequence that the next event published will have
+     */
+    public long getNextSequence() {
+        return next.get();
+    }
+
+    /**
+     * Close a resource when the bus is closed, after every subscription has
+     * been given the events already published, such as the change log that a
+     * subscriber appends to.
+     * @param resource the resource
+     */
+    public void closeWith(AutoCloseable resource) {
+        resources.add(resource);
+    }
+
+    /**
+     * Stop accepting events, close every subscription once it has been
+     * given the events already published, and then close the resources
+     * registered with closeWith. A resource that cannot be closed is logged.
+     */
+    public void close() {
+        closed = true;
+        for (Subscription sub : subscriptions) {
+            sub.close();
+        }
+        for (AutoCloseable resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Unable to close " + resource, e);
+            }
+        }
+        resources.clear();
+    }
+
+    /*
+     * The cursor of the slowest subscriber, or limit if there is no
+     * subscriber behind it
+     */
+    private long slowest(long limit) {
+        long min = limit;
+        for (Subscription sub : subscriptions) {
+            min = Math.min(min, sub.cursor.get());
+        }
+        return min;
+    }
+
+    /*
+     * Wait for a little longer each time, from yielding up to MAX_PARK
+     */
+    private static void backOff(int idle) {
+        if (idle < 16) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK, 1000L << Math.min(idle - 16, 10)));
+        }
+    }
+
+    /**
+     * A subscription to the events of a bus
+     */
+    public class Subscription implements AutoCloseable {
+
+        private final String name;
+        private final Consumer<? super MarkChangeEvent> consumer;
+        private final Runnable endBatch;
+        // The sequence of the last event given to the consumer
+        private final AtomicLong cursor;
+        private final Thread thread;
+        private volatile boolean stopping = false;
+
+        private Subscription(String name, Consumer<? super MarkChangeEvent> consumer, Runnable endBatch,
+                long cursor) {
+            this.name = name;
+            this.consumer = consumer;
+            this.endBatch = endBatch;
+            this.cursor = new AtomicLong(cursor);
+            this.thread = new Thread(this::run, "mark-events-" + name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * @return the name of the subscriber
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of events published that the subscriber has not
+         * yet been given
+         */
+        public long getLag() {
+            return Math.max(0, next.get() - 1 - cursor.get());
+        }
+
+        /**
+         * Unsubscribe once the events already published have been given to
+         * the consumer, waiting for them to be given unless called by the
+         * consumer itself.
+         */
+        @Override
+        public void close() {
+            stopping = true;
+            LockSupport.unpark(thread);
+            if (Thread.currentThread() == thread) {
+                return;
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void run() {
+            try {
+                long seq = cursor.get() + 1;
+                // Whether events have been given since the last batch ended
+                boolean batch = false;
+                for (int idle = 0; ; ) {
+                    MarkChangeEvent e = ring.get((int) seq & mask);
+                    if (e != null && e.getSequence() == seq) {
+                        try {
+                            consumer.accept(e);
+                        } catch (RuntimeException ex) {
+                            LOGGER.log(Level.WARNING, "Subscriber " + name + " failed on event " + seq, ex);
+                        }
+                        cursor.set(seq++);
+                        idle = 0;
+                        batch = endBatch != null;
+                    } else if (batch) {
+                        // the consumer has caught up with the publishers
+                        batch = false;
+                        try {
+                            endBatch.run();
+                        } catch (RuntimeException ex) {
+                            LOGGER.log(Level.WARNING, "Subscriber " + name + " failed to end a batch at event "
+                                    + (seq - 1), ex);
+                        }
+                    } else if (stopping && seq >= next.get()) {
+                        return;
+                    } else if (idle++ < 16) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(this, MAX_PARK);
+                    }
+                }
+            } finally {
+                subscriptions.remove(this);
+            }
+        }
+    }
+}
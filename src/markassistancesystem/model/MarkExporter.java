@@ -0,0 +1,306 @@
+package markassistancesystem.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * MarkExporter writes the records of a selection to a file as CSV, in the
+ * form read by MarkImporter, or as JSON Lines. Records are written as they
+ * are read from the selection, through a fixed size buffer onto a file
+ * channel, so no list of the records is built and memory use does not depend
+ * on the number of records. The output can be gzip compressed.
+ * <p>
+ * Only the selections ALL, RANGE, GRADE and TOLERANCE can be exported, so that
+ * an export never runs a command such as UPDATE_ALL_GRADE. The selection and
+ * its parameters are checked before the file is opened, so a bad request
+ * leaves an existing file as it was.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkExporter {
+
+    /**
+     * The Format enum specifies the file formats that can be written
+     */
+    public static enum Format {
+        // a header row, then one comma separated row per record
+        CSV,
+        // one JSON object per line
+        JSONL,
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] CSV_HEADER =
+            "StudentID,Assignment1,Assignment2,Exam,Total,Grade\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final IQuery<Query, Student> queries;
+
+    /**
+     * Create an exporter of the selections made by a query interface.
+     * @param queries the marks to export, such as a MarkAssistanceSystemModule
+     */
+    public MarkExporter(IQuery<Query, Student> queries) {
+        this.queries = queries;
+    }
+
+    /**
+     * Check that a selection can be exported: it is ALL, RANGE (from and to
+     * totals), GRADE (a grade) or TOLERANCE (a tolerance), with the parameters
+     * it takes.
+     * @param q the selection as specified in the Query enum
+     * @param p parameters for the query
+     * @throws IllegalArgumentException if the selection cannot be exported,
+     * or its parameters are wrong
+     */
+    public static void check(Query q, String... p) throws IllegalArgumentException {
+        int n;
+        switch ( q ) {
+            case ALL:
+                n = 0;
+                break;
+            case RANGE:
+                n = 2;
+                break;
+            case GRADE:
+            case TOLERANCE:
+                n = 1;
+                break;
+            default:
+                throw new IllegalArgumentException(q + " is not a selection that can be exported");
+        }
+        if (p.length != n) {
+            throw new IllegalArgumentException(q + " takes " + n + (n == 1 ? " parameter" : " parameters"));
+        }
+        if (q != Query.GRADE) {
+            for (String v : p) {
+                try {
+                    Integer.parseInt(v);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(q + " parameter is not a number: " + v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the records of a selection to a file, replacing the file if it
+     * exists.
+     * @param file the file
+     * @param format the file format
+     * @param gzip whether to compress the file with gzip
+     * @param q the selection as specified in the Query enum
+     * @param p parameters for the query
+     * @return the number of records written
+     * @throws IllegalArgumentException if the selection cannot be exported,
+     * as given by check(), in which case the file is not opened
+     * @throws IOException if the file cannot be written
+     * @throws QueryException if the selection fails
+     */
+    public int export(Path file, Format format, boolean gzip, Query q, String... p)
+            throws IllegalArgumentException, IOException, QueryException {
+        check(q, p);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                Sink sink = new Sink(channel, gzip)) {
+            if (format == Format.CSV) {
+                sink.write(CSV_HEADER);
+            }
+            try {
+                return queries.selectEach(q, s -> {
+                    try {
+                        if (format == Format.CSV) {
+                            csv(sink, s);
+                        } else {
+                            json(sink, s);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, p);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static void csv(Sink sink, Student s) throws IOException {
+        sink.csvString(s.getStudentID());
+        sink.write(',');
+        sink.number(s.getAssignment1());
+        sink.write(',');
+        sink.number(s.getAssignment2());
+        sink.write(',');
+        sink.number(s.getExam());
+        sink.write(',');
+        sink.number(s.getTotal());
+        sink.write(',');
+        sink.csvString(grade(s));
+        sink.write('\n');
+    }
+
+    private static void json(Sink sink, Student s) throws IOException {
+        sink.ascii("{\"studentID\":");
+        sink.jsonString(s.getStudentID());
+        sink.ascii(",\"assignment1\":");
+        sink.number(s.getAssignment1());
+        sink.ascii(",\"assignment2\":");
+        sink.number(s.getAssignment2());
+        sink.ascii(",\"exam\":");
+        sink.number(s.getExam());
+        sink.ascii(",\"total\":");
+        sink.number(s.getTotal());
+        sink.ascii(",\"grade\":");
+        sink.jsonString(grade(s));
+        sink.ascii("}\n");
+    }
+
+    /*
+     * The grade of a record without the padding of fixed width grade columns
+     */
+    private static String grade(Student s) {
+        return s.getGrade() == null ? null : s.getGrade().trim();
+    }
+
+    /*
+     * A buffered writer of UTF-8 text onto a file channel, directly or through
+     * a gzip stream.
+     */
+    private static class Sink implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final OutputStream gzip;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final byte[] digits = new byte[11];
+
+        Sink(FileChannel channel, boolean compress) throws IOException {
+            this.channel = channel;
+            this.gzip = compress ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE) : null;
+        }
+
+        void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+        }
+
+        void write(byte[] b) throws IOException {
+            for (int i = 0; i < b.length; ) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(b.length - i, buffer.remaining());
+                buffer.put(b, i, n);
+                i += n;
+            }
+        }
+
+        void ascii(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                write(s.charAt(i));
+            }
+        }
+
+        void number(int v) throws IOException {
+            long n = v;
+            if (n < 0) {
+                write('-');
+                n = -n;
+            }
+            int i = digits.length;
+            do {
+                digits[--i] = (byte) ('0' + n % 10);
+                n /= 10;
+            } while (n > 0);
+            for (; i < digits.length; i++) {
+                write(digits[i]);
+            }
+        }
+
+        void text(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    // rare in student records, so encode the rest at once
+                    write(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                write(c);
+            }
+        }
+
+        void csvString(String s) throws IOException {
+            if (s == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                text(s);
+                return;
+            }
+            write('"');
+            text(s.replace("\"", "\"\""));
+            write('"');
+        }
+
+        void jsonString(String s) throws IOException {
+            if (s == null) {
+                ascii("null");
+                return;
+            }
+            write('"');
+            int from = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    text(s.substring(from, i));
+                    if (c == '"' || c == '\\') {
+                        write('\\');
+                        write(c);
+                    } else {
+                        ascii(String.format("\\u%04x", (int) c));
+                    }
+                    from = i + 1;
+                }
+            }
+            text(from == 0 ? s : s.substring(from));
+            write('"');
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            if (gzip != null) {
+                gzip.write(buffer.array(), 0, buffer.limit());
+            } else {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            if (gzip != null) {
+                gzip.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,464 @@
+package markassistancesystem.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * MarkImporter loads student marks from a CSV file into the marks. Each row
+ * holds a student ID, the assignment 1, assignment 2 and exam marks, and
+ * optionally the total mark and grade:
+ * <pre>
+ * StudentID,Assignment1,Assignment2,Exam[,Total[,Grade]]
+ * </pre>
+ * A missing total is the sum of the marks and a missing grade is determined
+ * by GradeEngine. Fields are not quoted, and spaces and tabs are trimmed from
+ * either end of a field; a row with a space or tab within a field is
+ * rejected. A header row is skipped.
+ * <p>
+ * The file is read through a fixed size buffer and parsed byte by byte, so
+ * only the student ID of a row is turned into a String, and memory use does
+ * not depend on the size of the file. Rows that fail validation are counted
+ * and reported, and the rest are upserted: a batch of updates is sent for
+ * each batch of rows, then the rows that matched no record are inserted.
+ * The work is committed every commit interval, so if the import fails the
+ * rows before the last commit remain imported.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkImporter {
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_COMMIT_INTERVAL = 10000;
+    private static final int DEFAULT_MAX_REJECTS = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Widths of the StudentID and Grade columns
+    private static final int ID_LENGTH = 10;
+    private static final int GRADE_LENGTH = 2;
+
+    // The largest mark accepted in any field
+    private static final int MAX_MARK = 100;
+
+    private static final int FIELDS = 6;
+    private static final int ASN1 = 1;
+    private static final int ASN2 = 2;
+    private static final int EXAM = 3;
+    private static final int TOTAL = 4;
+    private static final int GRADE = 5;
+
+    private final MarkAssistanceSystemModule module;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int maxRejects = DEFAULT_MAX_REJECTS;
+
+    /**
+     * Create an importer into the marks managed by a module.
+     * @param module the marks manager, which must be connected
+     */
+    public MarkImporter(MarkAssistanceSystemModule module) {
+        this.module = module;
+    }
+
+    /**
+     * Set the number of rows sent to the database in one batch
+     * @param size the batch size
+     * @throws IllegalArgumentException if size is not positive
+     */
+    public void setBatchSize(int size) throws IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        batchSize = size;
+    }
+
+    /**
+     * Set the number of rows imported between commits. The interval is
+     * rounded up to a whole number of batches.
+     * @param rows the commit interval
+     * @throws IllegalArgumentException if rows is not positive
+     */
+    public void setCommitInterval(int rows) throws IllegalArgumentException {
+        if (rows < 1) {
+            throw new IllegalArgumentException("Commit interval must be positive");
+        }
+        commitInterval = rows;
+    }
+
+    /**
+     * Set the number of rejected rows that are kept for the report
+     * @param n the number of rejects to keep
+     * @throws IllegalArgumentException if n is negative
+     */
+    public void setMaxRejects(int n) throws IllegalArgumentException {
+        if (n < 0) {
+            throw new IllegalArgumentException("Reject limit must not be negative");
+        }
+        maxRejects = n;
+    }
+
+    /**
+     * Import the marks in a CSV file.
+     * @param file the file
+     * @return a report of the rows imported and rejected
+     * @throws IOException if the file cannot be read
+     * @throws QueryException if the marks cannot be written, or the import
+     * was cancelled
+     */
+    public ImportReport importCsv(Path file) throws IOException, QueryException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                PooledConnection pc = module.getPool().acquire()) {
+            Connection connection = pc.getConnection();
+            Run run = new Run(pc);
+            try {
+                connection.setAutoCommit(false);
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long bytes = 0;
+                int n;
+                while ((n = channel.read(buffer)) >= 0) {
+                    bytes += n;
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        run.accept(buffer.get());
+                    }
+                    buffer.clear();
+                }
+                run.finish();
+                run.commit();
+                return new ImportReport(run.read, run.inserted, run.updated, run.rejected,
+                        bytes, System.nanoTime() - start, run.rejects);
+            } catch (SQLException e) {
+                QueryException failure = new QueryException("Unable to import marks at line " + run.line, e);
+                rollback(connection, failure);
+                throw failure;
+            } catch (QueryException | IOException | RuntimeException e) {
+                rollback(connection, e);
+                throw e;
+            }
+        }
+    }
+
+    /*
+     * Abandon the rows written since the last commit after a failure. A
+     * failure to do so is added to the failure as a suppressed exception.
+     */
+    private static void rollback(Connection connection, Exception failure) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /*
+     * The state of one import: the row being parsed, the batch of rows waiting
+     * to be written and the counts for the report.
+     */
+    private class Run {
+
+        private final PooledConnection pc;
+        private final PreparedStatement update;
+        private final PreparedStatement insert;
+
+        // The row being parsed. Marks are accumulated as they are read; a
+        // field that is absent or empty is -1.
+        private final char[] id = new char[ID_LENGTH];
+        private int idLength;
+        private boolean idOverflow;
+        private final int[] marks = new int[GRADE];
+        private final char[] grade = new char[GRADE_LENGTH];
+        private int gradeLength;
+        private int field;
+        // whether the field has begun, and whether a space or tab has been
+        // read since its last character
+        private boolean inField;
+        private boolean spaced;
+        private boolean empty = true;
+        private String error;
+        private long line = 1;
+
+        // The batch, kept as parallel arrays of the validated rows
+        private final String[] ids;
+        private final int[][] values;
+        private final String[] grades;
+        private final Set<String> batched = new HashSet<>();
+        private int pending;
+        private int uncommitted;
+
+        // The rows written since the last commit and the commands that wrote
+        // them, kept only while the module has an event bus to publish them on
+        private final boolean publishing;
+        private final List<Student> written = new ArrayList<>();
+        private final List<Query> writtenBy = new ArrayList<>();
+
+        // Counts for the report
+        private long read;
+        private long inserted;
+        private long updated;
+        private long rejected;
+        private final List<ImportReport.Reject> rejects = new ArrayList<>();
+
+        Run(PooledConnection pc) throws QueryException {
+            this.pc = pc;
+            update = pc.statement(Query.UPDATE);
+            insert = pc.statement(Query.INSERT);
+            ids = new String[batchSize];
+            values = new int[batchSize][GRADE];
+            grades = new String[batchSize];
+            publishing = module.getEventBus() != null;
+            startRow();
+        }
+
+        private void startRow() {
+            idLength = 0;
+            idOverflow = false;
+            for (int i = 0; i < marks.length; i++) {
+                marks[i] = -1;
+            }
+            gradeLength = 0;
+            field = 0;
+            inField = false;
+            spaced = false;
+            empty = true;
+            error = null;
+        }
+
+        void accept(byte b) throws SQLException, QueryException {
+            if (b == '\n') {
+                endRow();
+                line++;
+                startRow();
+                return;
+            }
+            if (b == '\r') {
+                return;
+            }
+            empty = false;
+            if (b == ',') {
+                // fields are counted after an error, to recognise a header
+                if (++field >= FIELDS && error == null) {
+                    error = "Too many fields";
+                }
+                inField = false;
+                spaced = false;
+                return;
+            }
+            if (error != null) {
+                return;
+            }
+            if (b == ' ' || b == '\t') {
+                // spaces around fields are ignored; spaces within one are
+                // rejected when the next character of the field is read
+                spaced = inField;
+                return;
+            }
+            if (spaced) {
+                error = "Space within field " + (field + 1);
+                return;
+            }
+            inField = true;
+            if (b < 0x20 || b > 0x7e) {
+                error = "Unexpected character in field " + (field + 1);
+                return;
+            }
+            if (field == 0) {
+                if (idLength < ID_LENGTH) {
+                    id[idLength++] = (char) b;
+                } else {
+                    idOverflow = true;
+                }
+            } else if (field < GRADE) {
+                if (b < '0' || b > '9') {
+                    error = "Field " + (field + 1) + " is not a number";
+                } else {
+                    int m = (marks[field] < 0 ? 0 : marks[field]) * 10 + (b - '0');
+                    // stop accumulating once the mark is out of range
+                    marks[field] = Math.min(m, MAX_MARK + 1);
+                }
+            } else if (gradeLength < GRADE_LENGTH) {
+                grade[gradeLength++] = (char) b;
+            } else {
+                error = "Unknown grade";
+            }
+        }
+
+        private void endRow() throws SQLException, QueryException {
+            if (empty) {
+                return;
+            }
+            if (line == 1 && field > 0 && error != null && marks[ASN1] < 0) {
+                // a header row
+                return;
+            }
+            read++;
+            pc.checkCancelled();
+            if (error == null) {
+                error = validate();
+            }
+            if (error != null) {
+                rejected++;
+                if (rejects.size() < maxRejects) {
+                    rejects.add(new ImportReport.Reject(line, error));
+                }
+                return;
+            }
+            String studentID = new String(id, 0, idLength);
+            if (!batched.add(studentID)) {
+                // a second row for a student replaces the first, so the first
+                // must be written before the second is batched
+                flush();
+                batched.add(studentID);
+            }
+            int[] v = values[pending];
+            System.arraycopy(marks, 0, v, 0, GRADE);
+            if (v[TOTAL] < 0) {
+                v[TOTAL] = v[ASN1] + v[ASN2] + v[EXAM];
+            }
+            byte code = gradeLength == 0
+                    ? GradeEngine.grade(v[TOTAL], v[ASN1], v[ASN2], v[EXAM])
+                    : gradeCode();
+            ids[pending] = studentID;
+            grades[pending] = Grade.of(code).name();
+            if (++pending == batchSize) {
+                flush();
+            }
+        }
+
+        private String validate() {
+            if (field < EXAM) {
+                return "Too few fields";
+            }
+            if (idLength == 0) {
+                return "Missing student ID";
+            }
+            if (idOverflow) {
+                return "Student ID is longer than " + ID_LENGTH + " characters";
+            }
+            for (int f = ASN1; f <= TOTAL; f++) {
+                if (marks[f] > MAX_MARK) {
+                    return "Field " + (f + 1) + " is greater than " + MAX_MARK;
+                }
+                if (marks[f] < 0 && f != TOTAL) {
+                    return "Field " + (f + 1) + " is missing";
+                }
+            }
+            if (gradeLength > 0 && gradeCode() == Grade.NONE) {
+                return "Unknown grade";
+            }
+            return null;
+        }
+
+        /*
+         * Look up the grade of the row without creating a String
+         */
+        private byte gradeCode() {
+            for (Grade g : Grade.values()) {
+                String name = g.name();
+                if (name.length() == gradeLength && name.charAt(0) == grade[0]
+                        && (gradeLength == 1 || name.charAt(1) == grade[1])) {
+                    return g.code();
+                }
+            }
+            return Grade.NONE;
+        }
+
+        /*
+         * Write the batch: update the rows that match a record, then insert
+         * the rest. Commit if the commit interval has been reached.
+         */
+        private void flush() throws SQLException, QueryException {
+            if (pending == 0) {
+                return;
+            }
+            if (uncommitted == 0) {
+                // the first write since the last commit
+                module.lockChanges(pc);
+            }
+            for (int i = 0; i < pending; i++) {
+                int[] v = values[i];
+                update.setInt(1, v[ASN1]);
+                update.setInt(2, v[ASN2]);
+                update.setInt(3, v[EXAM]);
+                update.setInt(4, v[TOTAL]);
+                update.setString(5, grades[i]);
+                update.setString(6, ids[i]);
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            int inserts = 0;
+            for (int i = 0; i < pending; i++) {
+                if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO) {
+                    updated++;
+                    written(Query.UPDATE, i);
+                    continue;
+                }
+                int[] v = values[i];
+                insert.setString(1, ids[i]);
+                insert.setInt(2, v[ASN1]);
+                insert.setInt(3, v[ASN2]);
+                insert.setInt(4, v[EXAM]);
+                insert.setInt(5, v[TOTAL]);
+                insert.setString(6, grades[i]);
+                insert.addBatch();
+                written(Query.INSERT, i);
+                inserts++;
+            }
+            if (inserts > 0) {
+                insert.executeBatch();
+                inserted += inserts;
+            }
+            uncommitted += pending;
+            if (uncommitted >= commitInterval) {
+                commit();
+            }
+            pending = 0;
+            batched.clear();
+        }
+
+        void finish() throws SQLException, QueryException {
+            endRow();
+            flush();
+        }
+
+        /*
+         * Keep a row of the batch to publish once it is committed
+         */
+        private void written(Query q, int i) {
+            if (publishing) {
+                int[] v = values[i];
+                written.add(module.derive(new Student(ids[i], v[ASN1], v[ASN2], v[EXAM], v[TOTAL], grades[i])));
+                writtenBy.add(q);
+            }
+        }
+
+        /*
+         * Commit the rows written since the last commit, which the triggers
+         * on the marks have counted as changes in the same transaction, then
+         * publish them. Rows rolled back after a failure are not published.
+         */
+        void commit() throws SQLException {
+            pc.getConnection().commit();
+            uncommitted = 0;
+            for (int i = 0; i < written.size(); i++) {
+                module.changed(writtenBy.get(i), written.get(i), 1);
+            }
+            written.clear();
+            writtenBy.clear();
+        }
+    }
+
+}
@@ -0,0 +1,405 @@
+package markassistancesystem.model;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Changes;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * MarkStatistics is an IQuery decorator that maintains the distribution of
+ * the marks: the number of records, the mean, median and percentiles of the
+ * total mark, the number of records with each grade and the number in each
+ * band between grade boundaries. The distribution is loaded with a single
+ * GROUP BY query, so the database sends one row per distinct total and grade
+ * rather than every record, and is held as primitive counts.
+ * <p>
+ * UPDATE and UPDATE_CURRENT_GREADE commands are passed on and then applied to
+ * the counts, the record being read by its key before it is changed, unless
+ * the module's change count shows that another client changed the marks
+ * since the distribution was loaded; UPDATE_ALL_GRADE causes the
+ * distribution to be reloaded. Changes made by other clients are detected by
+ * refresh(), which reads the change count as CachingQuery does, so no command
+ * costs a scan of the marks. Reading a statistic
+ * never queries the database: counts and the mean take constant time and
+ * percentiles a walk of at most one count per possible total.
+ *
+ * @author Ziheng Cong
+ */
+public class MarkStatistics implements IQuery<Query, Student> {
+
+    // Default time between checks for changes made by other clients
+    private static final long DEFAULT_CHECK_INTERVAL = 5000;
+
+    // The range of totals that is counted initially; it grows to take in any
+    // total outside it
+    private static final int LOWEST_TOTAL = 0;
+    private static final int HIGHEST_TOTAL = 100;
+
+    private final IQuery<Query, Student> queries;
+    private final MarkAssistanceSystemModule module;
+    private final long checkInterval;
+
+    // The distribution, which is guarded by this. totals[i] is the number of
+    // records with total lowest + i, grades[g] the number with grade code g
+    // and grades[GRADE_COUNT] the number without a grade.
+    private static final int GRADE_COUNT = Grade.values().length;
+    private long[] totals = new long[HIGHEST_TOTAL - LOWEST_TOTAL + 1];
+    private int lowest = LOWEST_TOTAL;
+    private final long[] grades = new long[GRADE_COUNT + 1];
+    private long count;
+    private long sum;
+    private boolean loaded = false;
+    private long version;
+    private volatile long lastCheck;
+
+    /**
+     * Create the statistics of the marks of a module, checking for changes
+     * made by other clients every five seconds.
+     * @param module the module
+     */
+    public MarkStatistics(MarkAssistanceSystemModule module) {
+        this(module, module, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * Create the statistics of the marks of a module, maintained from the
+     * commands made through a query interface over it.
+     * @param queries the query interface over the module, such as a
+     * CachingQuery
+     * @param module the module
+     * @param checkInterval the minimum time between checks for changes made
+     * by other clients, in milliseconds
+     */
+    public MarkStatistics(IQuery<Query, Student> queries, MarkAssistanceSystemModule module, long checkInterval) {
+        this.queries = queries;
+        this.module = module;
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Load the distribution if it has not been loaded, or reload it if the
+     * marks have been changed by another client since it was loaded. The
+     * check is made at most once every check interval.
+     * @throws QueryException
+     */
+    public void refresh() throws QueryException {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (loaded && now - lastCheck < checkInterval) {
+                return;
+            }
+        }
+        long v = module.getChangeCount();
+        lastCheck = now;
+        synchronized (this) {
+            if (loaded && v == version) {
+                return;
+            }
+        }
+        load(v);
+    }
+
+    /**
+     * Discard the distribution, so that it is reloaded by the next refresh
+     */
+    public synchronized void invalidate() {
+        loaded = false;
+    }
+
+    // Statistics
+
+    /**
+     * @return the number of records
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean total mark, or 0 if there are no records
+     */
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @return the median total mark, or 0 if there are no records
+     */
+    public int getMedian() {
+        return getPercentile(50);
+    }
+
+    /**
+     * Find a percentile of the total marks, by the nearest rank method: the
+     * least total such that at least percentile per cent of the records have
+     * that total or less.
+     * @param percentile the percentile, from 0 to 100
+     * @return the percentile, or 0 if there are no records
+     * @throws IllegalArgumentException if percentile is not from 0 to 100
+     */
+    public synchronized int getPercentile(double percentile) throws IllegalArgumentException {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < totals.length; i++) {
+            seen += totals[i];
+            if (seen >= rank) {
+                return lowest + i;
+            }
+        }
+        // Should never happen
+        return lowest + totals.length - 1;
+    }
+
+    /**
+     * @param g a grade
+     * @return the number of records with the grade
+     */
+    public synchronized long getGradeCount(Grade g) {
+        return grades[g.code()];
+    }
+
+    /**
+     * @return the number of records with each grade, in order of grade
+     */
+    public synchronized Map<Grade, Long> getGradeCounts() {
+        Map<Grade, Long> counts = new EnumMap<>(Grade.class);
+        for (Grade g : Grade.values()) {
+            counts.put(g, grades[g.code()]);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of records without a recognised grade
+     */
+    public synchronized long getUngradedCount() {
+        return grades[GRADE_COUNT];
+    }
+
+    /**
+     * @param total a total mark
+     * @return the number of records with the total
+     */
+    public synchronized long getTotalCount(int total) {
+        int i = total - lowest;
+        return i < 0 || i >= totals.length ? 0 : totals[i];
+    }
+
+    /**
+     * Count the records in each band of total marks between grade boundaries.
+     * Band 0 holds the totals at or above the highest boundary, band i the
+     * totals below boundary i - 1 but at or above boundary i, and the last
+     * band the totals below the lowest boundary.
+     * @return the number of records in each band
+     */
+    public synchronized long[] getBandCounts() {
+        int[] b = GradeEngine.BOUNDARIES;
+        long[] bands = new long[b.length + 1];
+        for (int i = 0; i < totals.length; i++) {
+            int total = lowest + i;
+            int band = 0;
+            while (band < b.length && total < b[band]) {
+                band++;
+            }
+            bands[band] += totals[i];
+        }
+        return bands;
+    }
+
+    // IQuery implementation
+
+    @Override
+    public List<Student> select(Query q, String... p) throws QueryException {
+        List<Student> results = queries.select(q, p);
+        if (q == Query.UPDATE_ALL_GRADE) {
+            invalidate();
+        }
+        return results;
+    }
+
+    @Override
+    public int selectEach(Query q, Consumer<? super Student> c, String... p) throws QueryException {
+        int n = queries.selectEach(q, c, p);
+        if (q == Query.UPDATE_ALL_GRADE) {
+            invalidate();
+        }
+        return n;
+    }
+
+    @Override
+    public int count(Query q, String... p) throws QueryException {
+        return queries.count(q, p);
+    }
+
+    /**
+     * Perform a command and apply it to the distribution. The record being
+     * changed is read first, so that its old total and grade can be removed.
+     * @param q the command as specified in the Query enum
+     * @param p a Student object containing the data for the command
+     * @return the number of records impacted on by the command
+     * @throws QueryException
+     */
+    @Override
+    public int command(Query q, Student p) throws QueryException {
+        boolean tracked;
+        synchronized (this) {
+            tracked = loaded && (q == Query.UPDATE || q == Query.UPDATE_CURRENT_GREADE);
+        }
+        if (!tracked) {
+            int n = queries.command(q, p);
+            if (n > 0) {
+                invalidate();
+            }
+            return n;
+        }
+        Student[] old = new Student[1];
+        module.selectEach(Query.BY_ID, s -> old[0] = s, p.getStudentID());
+        int n = queries.command(q, p);
+        if (n > 0) {
+            apply(q, old[0], p);
+        }
+        return n;
+    }
+
+    /**
+     * Perform a command on each of a collection of records. Reading every
+     * record first would cost a query per record, so the distribution is
+     * reloaded instead, with a single query.
+     * @param q the command as specified in the Query enum
+     * @param ps the records
+     * @return the outcome for each record
+     * @throws QueryException
+     */
+    @Override
+    public int[] commandAll(Query q, Collection<? extends Student> ps) throws QueryException {
+        try {
+            return queries.commandAll(q, ps);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        queries.cancel();
+    }
+
+    // Helper methods
+
+    /*
+     * Replace the distribution with one counted by the database.
+     */
+    private void load(long v) throws QueryException {
+        long[] t = new long[HIGHEST_TOTAL - LOWEST_TOTAL + 1];
+        int low = LOWEST_TOTAL;
+        long[] g = new long[GRADE_COUNT + 1];
+        long n = 0;
+        long s = 0;
+        try (PooledConnection pc = module.getPool().acquire()) {
+            // Look up prepared statement
+            PreparedStatement ps = pc.statement(Query.DISTRIBUTION);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                while (resultSet.next()) {
+                    int total = resultSet.getInt(1);
+                    byte code = Grade.codeOf(resultSet.getString(2));
+                    long k = resultSet.getLong(3);
+                    if (total < low || total - low >= t.length) {
+                        int from = Math.min(low, total);
+                        t = widen(t, low, from, Math.max(low + t.length - 1, total));
+                        low = from;
+                    }
+                    t[total - low] += k;
+                    g[code == Grade.NONE ? GRADE_COUNT : code] += k;
+                    n += k;
+                    s += total * k;
+                }
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to execute distribution query", e));
+            }
+        }
+        synchronized (this) {
+            totals = t;
+            lowest = low;
+            System.arraycopy(g, 0, grades, 0, g.length);
+            count = n;
+            sum = s;
+            loaded = true;
+            version = v;
+        }
+    }
+
+    /*
+     * Apply a successful UPDATE or UPDATE_CURRENT_GREADE to the distribution.
+     * The change it committed must follow the change count of the
+     * distribution directly; if another client's change came between them,
+     * the distribution is reloaded instead.
+     */
+    private void apply(Query q, Student old, Student p) {
+        Changes c = module.lastChanges();
+        synchronized (this) {
+            if (!loaded) {
+                return;
+            }
+            if (!c.follow(version) || old == null || getTotalCount(old.getTotal()) == 0) {
+                // the record was added, or changed by another client, since
+                // the distribution was loaded
+                loaded = false;
+                return;
+            }
+            remove(old.getTotal(), old.getGrade());
+            if (q == Query.UPDATE) {
+                Student written = module.derive(p);
+                add(written.getTotal(), written.getGrade());
+            } else {
+                // only the grade is written, calculated from the marks given
+                add(old.getTotal(), MarkAssistanceSystemModule.gradeDetermination(
+                        p.getTotal(), p.getAssignment1(), p.getAssignment2(), p.getExam()));
+            }
+            version = c.last();
+        }
+    }
+
+    private void add(int total, String grade) {
+        if (total < lowest || total - lowest >= totals.length) {
+            int from = Math.min(lowest, total);
+            totals = widen(totals, lowest, from, Math.max(lowest + totals.length - 1, total));
+            lowest = from;
+        }
+        totals[total - lowest]++;
+        byte code = Grade.codeOf(grade);
+        grades[code == Grade.NONE ? GRADE_COUNT : code]++;
+        count++;
+        sum += total;
+    }
+
+    private void remove(int total, String grade) {
+        totals[total - lowest]--;
+        byte code = Grade.codeOf(grade);
+        grades[code == Grade.NONE ? GRADE_COUNT : code]--;
+        count--;
+        sum -= total;
+    }
+
+    /*
+     * Copy the counts of the totals from low into an array for the totals
+     * from 'from' to 'to'.
+     */
+    private static long[] widen(long[] t, int low, int from, int to) {
+        long[] w = new long[to - from + 1];
+        System.arraycopy(t, 0, w, low - from, t.length);
+        return w;
+    }
+}
@@ -0,0 +1,55 @@
+package markassistancesystem.model;
+
+/**
+ * A data container for a student record whose total mark is at or just below
+ * the boundary of a pass band. No setters are provided, as attributes are
+ * read-only.
+ *
+ * @author Ziheng Cong
+ */
+public class NearBoundary {
+
+    private final Student student;
+    private final int boundary;
+
+    /**
+     * Create a tagged student record.
+     *
+     * @param student the student record
+     * @param boundary the lowest total mark of the pass band that the record
+     * is near
+     */
+    public NearBoundary(Student student, int boundary) {
+        this.student = student;
+        this.boundary = boundary;
+    }
+
+    /**
+     * @return the student record
+     */
+    public Student getStudent() {
+        return student;
+    }
+
+    /**
+     * @return the lowest total mark of the pass band that the record is near
+     */
+    public int getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * @return the grade awarded from the boundary mark upwards
+     */
+    public Grade getBoundaryGrade() {
+        return GradeEngine.gradeOf(boundary, 0, 0, 0);
+    }
+
+    /**
+     * @return the number of marks by which the total falls short of the
+     * boundary, which is 0 for a total on the boundary
+     */
+    public int getDistance() {
+        return boundary - student.getTotal();
+    }
+}
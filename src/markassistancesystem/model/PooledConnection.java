@@ -0,0 +1,155 @@
+package markassistancesystem.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.EnumMap;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+/**
+ * PooledConnection wraps a connection leased from a ConnectionPool together
+ * with the prepared statements that have been created on it. A leased
+ * connection is used by one thread at a time and is returned to its pool by
+ * close(), so it is intended to be used with try with resources.
+ *
+ * @author Ziheng Cong
+ */
+class PooledConnection implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    // Prepared statements are created on first use and cached for the life of
+    // the connection
+    private final EnumMap<Query, PreparedStatement> statements =
+        new EnumMap<>( Query.class );
+    // Set when the work using the connection has been cancelled
+    private volatile boolean cancelled = false;
+    // The task that has leased the connection, if any
+    private QueryTask task;
+
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    /**
+     * @return the underlying connection
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Look up the prepared statement for a query, preparing it if this is the
+     * first time it has been used on this connection.
+     * @param q the query
+     * @return the prepared statement
+     * @throws QueryException if the statement cannot be prepared
+     */
+    synchronized PreparedStatement statement(Query q) throws QueryException {
+        PreparedStatement ps = statements.get(q);
+        if (ps == null) {
+            try {
+                ps = connection.prepareStatement(pool.getSql(q));
+            } catch (SQLException e) {
+                throw (new QueryException("Unable to prepare query " + q, e));
+            }
+            statements.put(q, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Prepare the statements for every query.
+     * @throws SQLException if a statement cannot be prepared
+     */
+    synchronized void prepareAll() throws SQLException {
+        for (Query q : Query.values()) {
+            if (!statements.containsKey(q)) {
+                statements.put(q, connection.prepareStatement(pool.getSql(q)));
+            }
+        }
+    }
+
+    /**
+     * Cancel the work using this connection. Statements that are executing are
+     * cancelled if the driver supports it; work that checks isCancelled()
+     * between rows stops at the next check.
+     */
+    void cancel() {
+        cancelled = true;
+        PreparedStatement[] running;
+        synchronized (this) {
+            running = statements.values().toArray(new PreparedStatement[0]);
+        }
+        for (PreparedStatement ps : running) {
+            try {
+                ps.cancel();
+            } catch (SQLException e) {
+                // not supported by the driver, or not executing
+            }
+        }
+    }
+
+    /**
+     * @return whether the work using this connection has been cancelled
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throw if the work using this connection has been cancelled.
+     * @throws QueryException if it has been cancelled
+     */
+    void checkCancelled() throws QueryException {
+        if (cancelled) {
+            throw (new QueryException("Query cancelled", null));
+        }
+    }
+
+    /**
+     * Clear the cancellation of the previous lease, and detach the
+     * connection from the task of the previous lease.
+     * @param t the task of the new lease, or null if the connection is not
+     * leased or not leased by a task
+     */
+    void reset(QueryTask t) {
+        if (task != null) {
+            task.detach(this);
+        }
+        cancelled = false;
+        task = t;
+        if (t != null) {
+            t.attach(this);
+        }
+    }
+
+    /**
+     * Close the prepared statements and the underlying connection.
+     * @throws SQLException 
+     */
+    void discard() throws SQLException {
+        try (Connection c = connection) {
+            // close prepared statements first
+            for (PreparedStatement ps : statements.values()) {
+                ps.close();
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * Return the connection to its pool. When the lease ends with an
+     * exception, a failure to close a connection being discarded is added to
+     * that exception as a suppressed exception.
+     * @throws QueryException if the connection was discarded and could not
+     * be closed
+     */
+    @Override
+    public void close() throws QueryException {
+        pool.release(this);
+    }
+
+}
@@ -0,0 +1,85 @@
+package markassistancesystem.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * QueryMetrics holds the metrics recorded for one query by an
+ * InstrumentedQuery: the distribution of call durations, and the numbers of
+ * calls, failed calls and records returned or changed.
+ *
+ * @author Ziheng Cong
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Record a call that succeeded.
+     * @param nanos the duration of the call
+     * @param n the number of records returned or changed
+     */
+    void record(long nanos, long n) {
+        latency.record(nanos);
+        rows.add(n);
+    }
+
+    /**
+     * Record a call that failed.
+     * @param nanos the duration of the call
+     */
+    void error(long nanos) {
+        latency.record(nanos);
+        errors.increment();
+    }
+
+    /**
+     * @return the distribution of call durations
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getMedianMillis() {
+        return latency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getPercentile99Millis() {
+        return latency.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxMillis();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        rows.reset();
+        errors.reset();
+    }
+}
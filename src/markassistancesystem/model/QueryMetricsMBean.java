@@ -0,0 +1,18 @@
+package markassistancesystem.model;
+
+/**
+ * QueryMetricsMBean is the management interface of the metrics recorded for
+ * one query, through which they are published over JMX.
+ *
+ * @author Ziheng Cong
+ */
+public interface QueryMetricsMBean {
+    long getCalls();
+    long getErrors();
+    long getRows();
+    double getMeanMillis();
+    double getMedianMillis();
+    double getPercentile99Millis();
+    double getMaxMillis();
+    void reset();
+}
@@ -0,0 +1,101 @@
+package markassistancesystem.model;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * QueryTask is a handle on a unit of work, such as the queries run for one
+ * request of a presenter, through which that work alone can be cancelled.
+ * Connections leased from a ConnectionPool by a thread that is running a task
+ * are attached to the task while they are leased, so cancelling the task
+ * cancels the statements of that task and no others. A cancelled task cannot
+ * lease another connection, so work that leases several connections in turn
+ * stops at the next one.
+ *
+ * @author Ziheng Cong
+ */
+public final class QueryTask {
+
+    // The task being run by each thread, if any
+    private static final ThreadLocal<QueryTask> CURRENT = new ThreadLocal<>();
+
+    private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Run work as part of this task on the calling thread.
+     * @param work the work
+     */
+    public void run(Runnable work) {
+        QueryTask previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            work.run();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Cancel the work of this task: the statements executing on the
+     * connections it has leased, and any connection it leases from now on.
+     * The cancelled calls fail with a QueryException.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (PooledConnection pc : leased) {
+            pc.cancel();
+        }
+    }
+
+    /**
+     * @return whether the task has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the task being run by the calling thread, or null
+     */
+    static QueryTask current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Wrap work so that it runs as part of this task on whichever thread
+     * calls it, such as a thread of a fork-join pool.
+     * @param work the work
+     * @return the wrapped work
+     */
+    <T> Callable<T> wrap(Callable<T> work) {
+        return () -> {
+            QueryTask previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                return work.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /*
+     * Attach a connection that has just been leased, cancelling it at once if
+     * the task has been cancelled while it was being leased
+     */
+    void attach(PooledConnection pc) {
+        leased.add(pc);
+        if (cancelled) {
+            pc.cancel();
+        }
+    }
+
+    /*
+     * Detach a connection that is being released
+     */
+    void detach(PooledConnection pc) {
+        leased.remove(pc);
+    }
+}
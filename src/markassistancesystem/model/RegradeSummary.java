@@ -0,0 +1,122 @@
+package markassistancesystem.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A data container describing the outcome of recalculating the grades of
+ * every student record. No setters are provided, as attributes are read-only.
+ *
+ * @author Ziheng Cong
+ */
+public class RegradeSummary {
+
+    private final List<Student> students;
+    private final int rowsScanned;
+    private final int rowsUpdated;
+    private final int rowsChanged;
+    private final Map<String, Integer> transitions;
+
+    /**
+     * Create a summary for a regrade of the marks that did not track which
+     * grades changed.
+     *
+     * @param students the regraded student records
+     * @param rowsScanned the number of records that were read
+     * @param rowsUpdated the number of records that were written
+     */
+    public RegradeSummary(List<Student> students, int rowsScanned, int rowsUpdated) {
+        this(students, rowsScanned, rowsUpdated, -1, Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * Create a summary for a regrade of the marks.
+     *
+     * @param students the regraded student records
+     * @param rowsScanned the number of records that were read
+     * @param rowsUpdated the number of records that were written
+     * @param rowsChanged the number of records whose grade changed
+     * @param transitions the number of records for each grade change, keyed
+     * by "old -&gt; new"
+     */
+    public RegradeSummary(List<Student> students, int rowsScanned, int rowsUpdated,
+            int rowsChanged, Map<String, Integer> transitions) {
+        this.students = students;
+        this.rowsScanned = rowsScanned;
+        this.rowsUpdated = rowsUpdated;
+        this.rowsChanged = rowsChanged;
+        this.transitions = Collections.unmodifiableMap(transitions);
+    }
+
+    /**
+     * Combine the summaries of regrades of disjoint parts of the marks into
+     * the summary of a regrade of the whole. Records are listed in the order
+     * of the summaries. Changes are only tracked if every part tracked them.
+     *
+     * @param parts the summaries to combine
+     * @return the combined summary
+     */
+    public static RegradeSummary merge(List<RegradeSummary> parts) {
+        List<Student> students = new ArrayList<>();
+        Map<String, Integer> transitions = new TreeMap<>();
+        int scanned = 0;
+        int updated = 0;
+        int changed = 0;
+        for (RegradeSummary part : parts) {
+            students.addAll(part.students);
+            scanned += part.rowsScanned;
+            updated += part.rowsUpdated;
+            if (changed >= 0 && part.rowsChanged >= 0) {
+                changed += part.rowsChanged;
+            } else {
+                changed = -1;
+            }
+            part.transitions.forEach((k, v) -> transitions.merge(k, v, Integer::sum));
+        }
+        if (changed < 0) {
+            transitions.clear();
+        }
+        return new RegradeSummary(students, scanned, updated, changed, transitions);
+    }
+
+    /**
+     * @return the regraded student records
+     */
+    public List<Student> getStudents() {
+        return students;
+    }
+
+    /**
+     * @return the number of records that were read
+     */
+    public int getRowsScanned() {
+        return rowsScanned;
+    }
+
+    /**
+     * @return the number of records that were written
+     */
+    public int getRowsUpdated() {
+        return rowsUpdated;
+    }
+
+    /**
+     * @return the number of records whose grade changed, or -1 if changes
+     * were not tracked
+     */
+    public int getRowsChanged() {
+        return rowsChanged;
+    }
+
+    /**
+     * @return the number of records for each grade change, keyed by
+     * "old -&gt; new". The map is empty if changes were not tracked.
+     */
+    public Map<String, Integer> getTransitions() {
+        return transitions;
+    }
+
+}
@@ -0,0 +1,258 @@
+package markassistancesystem.model;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * SchemaMigration brings the schema of the marks up to date. The schema
+ * version is recorded in the SchemaVersion table; each step that is newer than
+ * the recorded version is applied in order, in its own transaction, and the
+ * new version is recorded with it. Objects that already exist, such as a
+ * Marks table created by hand, are left as they are.
+ *
+ * @author Ziheng Cong
+ */
+final class SchemaMigration {
+
+    // The statement run by the triggers that count the changes to the marks
+    private static final String COUNT_CHANGE = "UPDATE MarksChanges SET Changes = Changes + 1 WHERE Id = 1";
+
+    /*
+     * The migration steps. Step i brings the schema to version i + 1. Each
+     * step is a list of objects to create or drop: a table, index, trigger or
+     * column (TABLE.COLUMN) name, and the DDL that creates the object, which is only
+     * run if it does not exist, or drops it, which is only run if it does.
+     * Statements that follow the DDL, such as one that fills a new table, are
+     * run with it.
+     */
+    private static final String[][][] STEPS = {
+        // 1: the marks
+        {
+            { "MARKS", "CREATE TABLE Marks ("
+                + " StudentID VARCHAR(10) NOT NULL PRIMARY KEY,"
+                + " Assignment1 INT, Assignment2 INT, Exam INT, Total INT,"
+                + " Grade CHAR(2))" },
+        },
+        // 2: indexes for the RANGE and TOLERANCE queries, and a covering index
+        // for the GRADE query, which holds every column so that the records
+        // are read from the index in order of total without a sort
+        {
+            { "MARKSTOTALIDX", "CREATE INDEX MarksTotalIdx ON Marks (Total)" },
+            { "MARKSGRADETOTALIDX", "CREATE INDEX MarksGradeTotalIdx ON Marks"
+                + " (Grade, Total, StudentID, Assignment1, Assignment2, Exam)" },
+        },
+        // 3: the number of times the marks of each record have been updated,
+        // for optimistic concurrency control; the covering index for the
+        // GRADE query must now hold it too
+        {
+            { "MARKS.VERSION", "ALTER TABLE Marks ADD COLUMN Version INT NOT NULL DEFAULT 0" },
+            { "MARKSGRADETOTALIDX", "DROP INDEX MarksGradeTotalIdx" },
+            { "MARKSGRADEVERSIONIDX", "CREATE INDEX MarksGradeVersionIdx ON Marks"
+                + " (Grade, Total, StudentID, Assignment1, Assignment2, Exam, Version)" },
+        },
+        // 4: the number of changes made to the marks, so that clients can
+        // tell whether the marks have changed without reading them
+        {
+            { "MARKSCHANGES", "CREATE TABLE MarksChanges ("
+                + " Id INT NOT NULL PRIMARY KEY, Changes BIGINT NOT NULL)",
+                "INSERT INTO MarksChanges VALUES (1, 0)" },
+        },
+        // 5: triggers that count each statement that writes the marks, by
+        // whichever client, as a change
+        {
+            { "MARKSCOUNTINSERT", "CREATE TRIGGER MarksCountInsert AFTER INSERT ON Marks"
+                + " FOR EACH STATEMENT " + COUNT_CHANGE },
+            { "MARKSCOUNTUPDATE", "CREATE TRIGGER MarksCountUpdate AFTER UPDATE ON Marks"
+                + " FOR EACH STATEMENT " + COUNT_CHANGE },
+            { "MARKSCOUNTDELETE", "CREATE TRIGGER MarksCountDelete AFTER DELETE ON Marks"
+                + " FOR EACH STATEMENT " + COUNT_CHANGE },
+        },
+    };
+
+    /**
+     * The schema version that migrate() brings the marks to
+     */
+    static final int LATEST = STEPS.length;
+
+    private static final String SCHEMA = "APP";
+
+    // The triggers that derive columns of each record as it is written
+    private static final String INSERT_TRIGGER = "MarksDeriveInsert";
+    private static final String UPDATE_TRIGGER = "MarksDeriveUpdate";
+
+    private SchemaMigration() {
+    }
+
+    /**
+     * Apply the migration steps that are newer than the recorded schema
+     * version. Concurrent migrations are serialised by locking the
+     * SchemaVersion table.
+     * @param connection a connection to the marks, in auto-commit mode
+     * @return the schema version before migration
+     * @throws SQLException if a step cannot be applied, in which case the
+     * schema is left at the version of the last step applied
+     */
+    static int migrate(Connection connection) throws SQLException {
+        if (!exists(connection, "SCHEMAVERSION", false)) {
+            try (Statement s = connection.createStatement()) {
+                s.executeUpdate("CREATE TABLE SchemaVersion ("
+                        + " Version INT NOT NULL PRIMARY KEY,"
+                        + " Applied TIMESTAMP NOT NULL)");
+            } catch (SQLException e) {
+                // another client created it first
+                if (!"X0Y32".equals(e.getSQLState())) {
+                    throw e;
+                }
+            }
+        }
+        int initial = version(connection);
+        connection.setAutoCommit(false);
+        try {
+            for (int v = initial; v < LATEST; v = version(connection)) {
+                try (Statement s = connection.createStatement()) {
+                    s.execute("LOCK TABLE SchemaVersion IN EXCLUSIVE MODE");
+                    if (version(connection) == v) {
+                        apply(connection, s, STEPS[v]);
+                        record(connection, v + 1);
+                    }
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return initial;
+    }
+
+    /**
+     * @param connection a connection to the marks
+     * @return the recorded schema version, or 0 if none has been recorded
+     * @throws SQLException
+     */
+    static int version(Connection connection) throws SQLException {
+        try (Statement s = connection.createStatement();
+                ResultSet rs = s.executeQuery("SELECT MAX(Version) FROM SchemaVersion")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Derive columns of each record of the marks in the database as the
+     * record is inserted, or its marks are updated, by running a statement
+     * after the write. The triggers that did so before are replaced, unless
+     * they already run the statement. Concurrent calls are serialised by
+     * locking the SchemaVersion table.
+     * @param connection a connection to the marks, in auto-commit mode
+     * @param action the statement, which refers to the record written as N,
+     * or null to derive nothing
+     * @throws SQLException if the triggers cannot be replaced, in which case
+     * they are left as they were
+     */
+    static void derive(Connection connection, String action) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement s = connection.createStatement()) {
+            s.execute("LOCK TABLE SchemaVersion IN EXCLUSIVE MODE");
+            trigger(connection, s, INSERT_TRIGGER, "AFTER INSERT ON Marks", action);
+            trigger(connection, s, UPDATE_TRIGGER,
+                    "AFTER UPDATE OF Assignment1, Assignment2, Exam, Total ON Marks", action);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /*
+     * Replace a row trigger on the Marks table, unless it already runs the
+     * action; a null action drops the trigger.
+     */
+    private static void trigger(Connection connection, Statement s, String name, String event, String action)
+            throws SQLException {
+        String current = definition(connection, name);
+        if (action != null && action.equals(current)) {
+            return;
+        }
+        if (current != null) {
+            s.executeUpdate("DROP TRIGGER " + name);
+        }
+        if (action != null) {
+            s.executeUpdate("CREATE TRIGGER " + name + " " + event
+                    + " REFERENCING NEW AS N FOR EACH ROW " + action);
+        }
+    }
+
+    /*
+     * The statement run by a trigger, or null if there is no such trigger
+     */
+    private static String definition(Connection connection, String name) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT t.TriggerDefinition FROM SYS.SysTriggers t JOIN SYS.SysSchemas c"
+                + " ON t.SchemaID = c.SchemaID WHERE c.SchemaName = ? AND t.TriggerName = ?")) {
+            ps.setString(1, SCHEMA);
+            ps.setString(2, name.toUpperCase());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static void apply(Connection connection, Statement s, String[][] step) throws SQLException {
+        for (String[] object : step) {
+            boolean drop = object[1].startsWith("DROP");
+            boolean exists = object[1].contains(" TRIGGER ")
+                    ? definition(connection, object[0]) != null
+                    : exists(connection, object[0], object[1].contains(" INDEX "));
+            if (exists == drop) {
+                for (int i = 1; i < object.length; i++) {
+                    s.executeUpdate(object[i]);
+                }
+            }
+        }
+    }
+
+    private static void record(Connection connection, int version) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO SchemaVersion VALUES (?, CURRENT_TIMESTAMP)")) {
+            ps.setInt(1, version);
+            ps.executeUpdate();
+        }
+    }
+
+    /*
+     * Test whether a table, a column (TABLE.COLUMN) or an index on the Marks
+     * table exists. Derby stores unquoted names in upper case.
+     */
+    private static boolean exists(Connection connection, String name, boolean index) throws SQLException {
+        DatabaseMetaData md = connection.getMetaData();
+        int dot = name.indexOf('.');
+        if (dot >= 0) {
+            try (ResultSet rs = md.getColumns(null, SCHEMA, name.substring(0, dot), name.substring(dot + 1))) {
+                return rs.next();
+            }
+        }
+        if (!index) {
+            try (ResultSet rs = md.getTables(null, SCHEMA, name, null)) {
+                return rs.next();
+            }
+        }
+        try (ResultSet rs = md.getIndexInfo(null, SCHEMA, "MARKS", false, false)) {
+            while (rs.next()) {
+                if (name.equals(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
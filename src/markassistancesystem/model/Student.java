@@ -8,12 +8,19 @@ package markassistancesystem.model;
  */
 public class Student {
 
+    /**
+     * The version of a record whose version is not known. Such a record
+     * overwrites the stored record when it is written, whatever its version.
+     */
+    public static final int NO_VERSION = -1;
+
     private final String studentID;
     private final int assignment1;
     private final int assignment2;
     private final int exam;
     private final int total;
     private final String grade;
+    private final int version;
 
     /**
      * Create a data transfer object for an student grade record. 
@@ -26,12 +33,31 @@ public class Student {
      * @param grade student grade
      */
     public Student(String studentID, int assignment1, int assignment2, int exam, int total, String grade) {
+        this(studentID, assignment1, assignment2, exam, total, grade, NO_VERSION);
+    }
+
+    /**
+     * Create a data transfer object for a student grade record as read at a
+     * version. Writing the record succeeds only if the stored record is still
+     * at that version.
+     * 
+     * @param studentID record identifier
+     * @param assignment1 assignment1 grade
+     * @param assignment2 assignment2 grade
+     * @param exam exam grade
+     * @param total total grade
+     * @param grade student grade
+     * @param version the number of times the marks or grade of the record had
+     * been changed when it was read, or NO_VERSION
+     */
+    public Student(String studentID, int assignment1, int assignment2, int exam, int total, String grade, int version) {
         this.studentID = studentID;
         this.assignment1 = assignment1;
         this.assignment2 = assignment2;
         this.exam = exam;
         this.total = total;
         this.grade = grade;
+        this.version = version;
     }
 
     // No setters are provided - use the constructor.
@@ -77,5 +103,13 @@ public class Student {
     public String getGrade() {
         return grade;
     }
+
+    /**
+     * @return the number of times the marks or grade of the record had been
+     * changed when it was read, or NO_VERSION if it is not known
+     */
+    public int getVersion() {
+        return version;
+    }
     
 }
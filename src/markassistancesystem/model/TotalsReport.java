@@ -0,0 +1,72 @@
+package markassistancesystem.model;
+
+/**
+ * A data container describing how far the stored totals and grades of the
+ * marks agree with the marks themselves. No setters are provided, as
+ * attributes are read-only.
+ *
+ * @author Ziheng Cong
+ */
+public class TotalsReport {
+
+    private final int rows;
+    private final int inconsistentTotals;
+    private final int inconsistentGrades;
+    private final String firstInconsistent;
+
+    /**
+     * Create a report of a verification of the marks.
+     *
+     * @param rows the number of records verified
+     * @param inconsistentTotals the number of records whose total is not the
+     * sum of their marks
+     * @param inconsistentGrades the number of records whose grade is not the
+     * grade earned by their marks
+     * @param firstInconsistent the least student ID of the records with an
+     * inconsistent total or grade, or null if there are none
+     */
+    public TotalsReport(int rows, int inconsistentTotals, int inconsistentGrades, String firstInconsistent) {
+        this.rows = rows;
+        this.inconsistentTotals = inconsistentTotals;
+        this.inconsistentGrades = inconsistentGrades;
+        this.firstInconsistent = firstInconsistent;
+    }
+
+    /**
+     * @return the number of records verified
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of records whose total is not the sum of their
+     * marks, a missing mark counting as zero
+     */
+    public int getInconsistentTotals() {
+        return inconsistentTotals;
+    }
+
+    /**
+     * @return the number of records whose grade is not the grade earned by
+     * their marks
+     */
+    public int getInconsistentGrades() {
+        return inconsistentGrades;
+    }
+
+    /**
+     * @return the least student ID of the records with an inconsistent total
+     * or grade, or null if there are none
+     */
+    public String getFirstInconsistent() {
+        return firstInconsistent;
+    }
+
+    /**
+     * @return whether every total and grade agrees with the marks
+     */
+    public boolean isConsistent() {
+        return firstInconsistent == null;
+    }
+}
@@ -0,0 +1,232 @@
+package markassistancesystem.presenter;
+
+import markassistancesystem.model.IQuery;
+import markassistancesystem.model.QueryException;
+import markassistancesystem.model.Student;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.IntConsumer;
+
+/**
+ * PagedList provides a read-only list view of a selection that holds only a
+ * sliding window of pages in memory. Pages are selected from the model when
+ * a record on them is first accessed, and the neighbouring page is fetched in
+ * the background when an access comes close to the edge of a page, so that
+ * browsing in either direction rarely waits for the model. The size of the
+ * list is fixed when it is created.
+ * <p>
+ * Records can also be peeked at without waiting, for a view such as a table
+ * that draws whatever is loaded and redraws when the rest arrives.
+ *
+ * @author Ziheng Cong
+ */
+class PagedList extends AbstractList<Student> {
+
+    private final IQuery<Query, Student> queries;
+    private final Query query;
+    private final int n;
+    private final int pageSize;
+    private final int pages;
+    private final int margin;
+    private final Executor prefetcher;
+
+    // The window of pages, least recently used first. The futures are run
+    // either by the caller or by the prefetcher.
+    private final Map<Integer, Future<List<Student>>> window;
+
+    // Told the number of each page that finishes loading, on the thread that
+    // loaded it
+    private volatile IntConsumer loadListener;
+
+    /**
+     * Create a paged view of all of the records in the model, in student ID
+     * order.
+     *
+     * @param queries the model
+     * @param n the number of records, as counted when the view is created
+     * @param pageSize the number of records selected at a time
+     * @param windowPages the number of pages held in memory
+     * @param prefetcher the executor used to fetch pages in the background
+     */
+    PagedList(IQuery<Query, Student> queries, int n, int pageSize, final int windowPages, Executor prefetcher) {
+        this(queries, Query.PAGE, n, pageSize, windowPages, prefetcher);
+    }
+
+    /**
+     * Create a paged view of all of the records in the model, in the order of
+     * a paged selection.
+     *
+     * @param queries the model
+     * @param query the paged selection, which takes an offset and a page size
+     * @param n the number of records, as counted when the view is created
+     * @param pageSize the number of records selected at a time
+     * @param windowPages the number of pages held in memory
+     * @param prefetcher the executor used to fetch pages in the background
+     */
+    PagedList(IQuery<Query, Student> queries, Query query, int n, int pageSize, final int windowPages,
+            Executor prefetcher) {
+        this.queries = queries;
+        this.query = query;
+        this.n = n;
+        this.pageSize = pageSize;
+        this.pages = (n + pageSize - 1) / pageSize;
+        this.margin = Math.max(1, pageSize / 4);
+        this.prefetcher = prefetcher;
+        this.window = new LinkedHashMap<Integer, Future<List<Student>>>(windowPages * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Future<List<Student>>> eldest) {
+                return size() > windowPages;
+            }
+        };
+    }
+
+    /**
+     * @return the number of records being browsed
+     */
+    @Override
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Get a record, selecting its page from the model if it is not in the
+     * window.
+     * @param i the position of the record
+     * @return the record
+     * @throws IllegalStateException if the page cannot be selected, or the
+     * records in the model have changed so that it no longer holds position i
+     */
+    @Override
+    public Student get(int i) throws IllegalStateException {
+        if (i < 0 || i >= n) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + n);
+        }
+        int p = i / pageSize;
+        int offset = i % pageSize;
+        List<Student> page = await(p, page(p, false));
+        if (offset >= pageSize - margin) {
+            page((p + 1) % pages, true);
+        } else if (offset < margin) {
+            page((p + pages - 1) % pages, true);
+        }
+        if (offset >= page.size()) {
+            throw new IllegalStateException("The marks have changed, browse them again");
+        }
+        return page.get(offset);
+    }
+
+    /**
+     * Get a record if its page is in the window, without waiting. Otherwise
+     * the page is fetched in the background and the load listener is told when
+     * it has been fetched.
+     * @param i the position of the record
+     * @return the record, or null if it has not been fetched, or could not be
+     * fetched
+     */
+    Student peek(int i) {
+        if (i < 0 || i >= n) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + n);
+        }
+        int p = i / pageSize;
+        int offset = i % pageSize;
+        Future<List<Student>> f = page(p, true);
+        if (offset >= pageSize - margin && p + 1 < pages) {
+            page(p + 1, true);
+        } else if (offset < margin && p > 0) {
+            page(p - 1, true);
+        }
+        if (!f.isDone()) {
+            return null;
+        }
+        try {
+            // A page that failed stays in the window until it is evicted, so
+            // that a table redrawing it does not select it again and again
+            List<Student> page = f.get();
+            return offset < page.size() ? page.get(offset) : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Set the listener that is told the number of each page that finishes
+     * loading. It is called on the thread that loaded the page.
+     * @param listener the listener, or null
+     */
+    void setLoadListener(IntConsumer listener) {
+        loadListener = listener;
+    }
+
+    /**
+     * @return the number of records on each page
+     */
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /*
+     * Look up a page in the window, adding it if it is absent. A page that is
+     * needed now is selected by the caller; a page that is being prefetched is
+     * selected by the prefetcher.
+     */
+    private Future<List<Student>> page(final int p, boolean prefetch) {
+        FutureTask<List<Student>> task;
+        synchronized (window) {
+            Future<List<Student>> f = window.get(p);
+            if (f != null) {
+                return f;
+            }
+            task = new FutureTask<List<Student>>(() -> queries.select(query,
+                    Integer.toString(p * pageSize), Integer.toString(pageSize))) {
+                @Override
+                protected void done() {
+                    IntConsumer listener = loadListener;
+                    if (listener != null) {
+                        listener.accept(p);
+                    }
+                }
+            };
+            window.put(p, task);
+        }
+        if (prefetch) {
+            prefetcher.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
+    }
+
+    /*
+     * Wait for page p to be selected. A page that could not be selected is
+     * dropped from the window, so that it is selected again on the next access.
+     */
+    private List<Student> await(int p, Future<List<Student>> f) throws IllegalStateException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while selecting records", e);
+        } catch (ExecutionException e) {
+            synchronized (window) {
+                window.remove(p, f);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof QueryException) {
+                throw new IllegalStateException(cause.getMessage(), cause);
+            }
+            throw new IllegalStateException("Unable to select records", cause);
+        }
+    }
+
+}
@@ -3,11 +3,30 @@ package markassistancesystem.presenter;
 import markassistancesystem.model.IQuery;
 import markassistancesystem.model.QueryException;
 import markassistancesystem.model.IConnect;
+import markassistancesystem.model.MarkExporter;
+import markassistancesystem.model.MarkStatistics;
+import markassistancesystem.model.QueryTask;
+import markassistancesystem.model.Grade;
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
 import markassistancesystem.model.ConnectionException;
+import markassistancesystem.model.ConcurrentUpdateException;
 import markassistancesystem.model.Student;
+import markassistancesystem.view.ITableView;
 import markassistancesystem.view.IView;
 
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
 
 // The queries that are available for the marks
 import static markassistancesystem.model.MarkAssistanceSystemModule.Query.*;
@@ -20,6 +39,11 @@ import static markassistancesystem.model.MarkAssistanceSystemModule.Query.*;
  * interface). In this implementation, the presenter only interacts with the
  * view for display updating, and not for retrieval of user input. Furthermore,
  * user input is validated in the presenter and not in the view.
+ * <p>
+ * Queries are run one at a time, in the order they are requested, on a worker
+ * executor, and all view updates are passed to a UI executor, so a slow query
+ * never blocks the view. By default the worker is a dedicated (virtual, when
+ * available) thread and the UI executor is the Swing event dispatch thread.
  *
  * @author Ziheng Cong
  */
@@ -31,6 +55,9 @@ public class StudentPresenter {
         Student current;
         int index;
         int n;
+        // Records written or read again since the context was set, which
+        // stand in for the records selected
+        final Map<String, Student> replaced = new HashMap<>();
         
         ViewModel() {
         }
@@ -40,45 +67,135 @@ public class StudentPresenter {
             index = 0;
             n = model.size();
             current = model.get(index);
+            replaced.clear();
         }
         
         IndexedStudent previous() {
             if (--index < 0 )
                 index = n-1;
-            return new IndexedStudent( model.get(index), index+1, n );              
+            return new IndexedStudent( at(index), index+1, n );              
         }
         
         IndexedStudent next() {
             if (++index > n-1 )
                 index = 0;
-            return new IndexedStudent( model.get(index), index+1, n );            
+            return new IndexedStudent( at(index), index+1, n );            
         }
         
         IndexedStudent current() {
-            return new IndexedStudent( model.get(index), index+1, n );  
+            return new IndexedStudent( at(index), index+1, n );  
+        }
+
+        Student at( int i ) {
+            Student s = model.get(i);
+            Student r = replaced.get(s.getStudentID());
+            return r == null ? s : r;
+        }
+
+        // The version of the current record if it has the given ID
+        int versionOf( String id ) {
+            if (model == null || n == 0) {
+                return Student.NO_VERSION;
+            }
+            Student s = at(index);
+            return s.getStudentID().equals(id) ? s.getVersion() : Student.NO_VERSION;
+        }
+
+        void replace( Student s ) {
+            replaced.put(s.getStudentID(), s);
         }
     }
 
-    // The context for model and view interaction
+    /**
+     * The Order enum specifies the orders in which records can be browsed as
+     * a table
+     */
+    public static enum Order {
+        STUDENT_ID, TOTAL, GRADE,
+    };
+
+    // When browsing all records, records are selected PAGE_SIZE at a time and
+    // at most WINDOW_PAGES pages are held in memory; a table, which may show
+    // several pages at once, holds up to TABLE_WINDOW_PAGES
+    private static final int PAGE_SIZE = 100;
+    private static final int WINDOW_PAGES = 4;
+    private static final int TABLE_WINDOW_PAGES = 10;
+
+    // The context for model and view interaction. Calls to view are passed to
+    // the UI executor; boundView is the view itself.
     IView view;
+    IView boundView;
+    // Calls to display a table are passed to the UI executor; null if the
+    // view cannot display tables
+    ITableView tableView;
     IQuery queries;
     IConnect connector;
+    // The distribution of the marks; null if it is not maintained
+    MarkStatistics statistics;
     ViewModel viewModel;
+    // Selects pages of records in the background while browsing
+    ExecutorService prefetcher;
+    // Runs queries, and updates the view
+    Executor worker;
+    Executor ui;
+    ExecutorService ownedWorker;
+    // The number of queries waiting or running, the running query, and
+    // whether it has been cancelled
+    final AtomicInteger pending = new AtomicInteger();
+    volatile QueryTask running;
+    volatile boolean cancelling = false;
 
     /**
      * Create a presenter instance. As there is a circular dependency between the
      * view and the presenter, only the presenters model dependencies are injected 
      * via the constructor - the view dependency is explictly injected via the
-     * bind() method.
+     * bind() method. Queries are run on a dedicated worker thread and the view
+     * is updated on the Swing event dispatch thread.
      * @param iq 
      * @param ic 
      */
     public StudentPresenter(IQuery iq, IConnect ic) {
+        this(iq, ic, null, SwingUtilities::invokeLater);
+    }
+
+    /**
+     * Create a presenter instance that runs queries and updates the view with
+     * the given executors. Passing Runnable::run for both makes the presenter
+     * synchronous, which suits a presenter without a Swing view.
+     * @param iq 
+     * @param ic 
+     * @param worker the executor for queries, which must run tasks one at a
+     * time in order, or null for a dedicated worker thread
+     * @param ui the executor for view updates
+     */
+    public StudentPresenter(IQuery iq, IConnect ic, Executor worker, Executor ui) {
         // intialise model access
         queries = iq;
         connector = ic;
+        // initialise query execution
+        if (worker == null) {
+            ownedWorker = Executors.newSingleThreadExecutor(workerThreads());
+            worker = ownedWorker;
+        }
+        this.worker = worker;
+        this.ui = ui;
         // initialise the browsing context
         viewModel = new ViewModel();
+        prefetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "page-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Set the statistics shown by showStatistics(). The statistics should
+     * decorate the query interface of the presenter, or lie beneath it, so
+     * that they see every command.
+     * @param ms the statistics
+     */
+    public void setStatistics(MarkStatistics ms) {
+        statistics = ms;
     }
 
     /**
@@ -86,7 +203,28 @@ public class StudentPresenter {
      * @param iv the view
      */
     public void bind(IView iv) {
-        view = iv;
+        boundView = iv;
+        view = new MarshalledView(iv, ui);
+        if (iv instanceof ITableView) {
+            ITableView tv = (ITableView) iv;
+            tableView = rows -> ui.execute(() -> tv.displayTable(rows));
+        } else {
+            tableView = null;
+        }
+    }
+
+    /**
+     * Cancel the query that is running, if any. Only the connections used by
+     * that query are cancelled; other work sharing the model, such as pages
+     * being fetched in the background, carries on. The view is told that the
+     * query was cancelled rather than that it failed.
+     */
+    public void cancel() {
+        QueryTask t = running;
+        if (t != null) {
+            cancelling = true;
+            t.cancel();
+        }
     }
 
     /**
@@ -96,7 +234,13 @@ public class StudentPresenter {
      * become the current record.
      */
     public void showPrevious() {
-        view.displayRecord( viewModel.previous() );
+        run(() -> {
+            try {
+                view.displayRecord( viewModel.previous() );
+            } catch (IllegalStateException e) {
+                fail(e);
+            }
+        });
     }
 
     /**
@@ -106,7 +250,13 @@ public class StudentPresenter {
      * become the current record.
      */
     public void showNext() {
-        view.displayRecord( viewModel.next() );
+        run(() -> {
+            try {
+                view.displayRecord( viewModel.next() );
+            } catch (IllegalStateException e) {
+                fail(e);
+            }
+        });
     }
     
     private void displayCurrentRecord(List results) {
@@ -131,13 +281,14 @@ public class StudentPresenter {
         if ("".equals(tolerance + "")) {
             throw new IllegalArgumentException("Argument must not be an empty string");
         }
-        try {
-            List results = queries.select(TOLERANCE, tolerance.toString());
-            displayCurrentRecord(results);
-        } catch (QueryException e) {
-            view.displayError(e.getMessage());
-            System.exit(1);
-        }
+        run(() -> {
+            try {
+                List results = queries.select(TOLERANCE, tolerance.toString());
+                displayCurrentRecord(results);
+            } catch (QueryException e) {
+                fail(e);
+            }
+        });
     }
     
     /**
@@ -152,13 +303,14 @@ public class StudentPresenter {
         if ("".equals(rangeFrom + "") || "".equals(rangeTo + "")) {
             throw new IllegalArgumentException("Argument must not be an empty string");
         }
-        try {
-            List results = queries.select(RANGE, rangeFrom.toString(), rangeTo.toString());
-            displayCurrentRecord(results);
-        } catch (QueryException e) {
-            view.displayError(e.getMessage());
-            System.exit(1);
-        }
+        run(() -> {
+            try {
+                List results = queries.select(RANGE, rangeFrom.toString(), rangeTo.toString());
+                displayCurrentRecord(results);
+            } catch (QueryException e) {
+                fail(e);
+            }
+        });
     }
     
     /**
@@ -172,31 +324,61 @@ public class StudentPresenter {
         if (grade.equals("")) {
             throw new IllegalArgumentException("Argument must not be an empty string");
         }
-        try {
-            List results = queries.select(GRADE, grade);
-            displayCurrentRecord(results);
-        } catch (QueryException e) {
-            view.displayError(e.getMessage());
-            System.exit(1);
-        }
+        run(() -> {
+            try {
+                List results = queries.select(GRADE, grade);
+                displayCurrentRecord(results);
+            } catch (QueryException e) {
+                fail(e);
+            }
+        });
     }
 
     /**
      * Set the browsing context to all records in the marks and display 
-     * the first record.
+     * the first record. Records are browsed in student ID order and are
+     * selected a page at a time, so only a window of pages is held in memory
+     * whatever the number of records.
      */
     public void selectAll() {
-        try {
-            List results = queries.select(ALL);
-            displayCurrentRecord(results);
-        } catch (QueryException e) {
-            view.displayError(e.getMessage());
-            System.exit(1);
+        run(() -> {
+            try {
+                int n = queries.count(ALL);
+                displayCurrentRecord(new PagedList(queries, n, PAGE_SIZE, WINDOW_PAGES, prefetcher));
+            } catch (QueryException | IllegalStateException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Display all records in the marks as a table, in the given order. Records
+     * are selected a page at a time as the table asks for them, so only a
+     * window of pages is held in memory whatever the number of records. Views
+     * that cannot display tables are left unchanged.
+     * @param order the order of the records
+     */
+    public void selectTable(Order order) {
+        if (tableView == null) {
+            return;
         }
+        run(() -> {
+            try {
+                int n = queries.count(ALL);
+                Query q = order == Order.TOTAL ? PAGE_BY_TOTAL
+                        : order == Order.GRADE ? PAGE_BY_GRADE : PAGE;
+                tableView.displayTable(new StudentRows(
+                        new PagedList(queries, q, n, PAGE_SIZE, TABLE_WINDOW_PAGES, prefetcher), ui));
+            } catch (QueryException e) {
+                fail(e);
+            }
+        });
     }
 
     /**
-     * Update a new entry into the marks.
+     * Update a new entry into the marks. If the entry is the record being
+     * browsed and another user has updated it since it was displayed, it is
+     * not updated; the record as stored is displayed instead.
      * @param id student id
      * @param asg1 assignment1 mark
      * @param asg2 assignment2 mark
@@ -209,20 +391,32 @@ public class StudentPresenter {
         if (id.equals("") || "".equals(asg1 + "") || "".equals(asg2 + "") || "".equals(exam + "") || "".equals(total + "") || grade.equals("")) {
             throw new IllegalArgumentException("Arguments must not contain an empty string");
         }
-        try {
-            //The grade field will be calculated by calculate button
-            Student p = new Student(id, asg1, asg2, exam, total, grade);
-            int result = queries.command(UPDATE, p);
-            if (result == 1) {
-                view.displayMessage("Student updated");
-            } else {
-                view.displayMessage("Student not updated");
+        run(() -> {
+            try {
+                //The grade field will be calculated by calculate button
+                int version = viewModel.versionOf(id);
+                Student p = new Student(id, asg1, asg2, exam, total, grade, version);
+                int result = queries.command(UPDATE, p);
+                if (result == 1) {
+                    if (version != Student.NO_VERSION) {
+                        viewModel.replace(new Student(id, asg1, asg2, exam, total, grade, version + 1));
+                    }
+                    view.displayMessage("Student updated");
+                } else {
+                    view.displayMessage("Student not updated");
+                }
+                view.setBrowsing(false);
+            } catch (ConcurrentUpdateException e) {
+                // Show the record as stored, so the update can be made again
+                viewModel.replace(e.getCurrent());
+                view.displayMessage("Student not updated: another user has updated the student since it was displayed."
+                        + " The marks now stored are shown.");
+                view.displayRecord(viewModel.current());
+                view.setBrowsing(true);
+            } catch (QueryException e) {
+                fail(e);
             }
-            view.setBrowsing(false);
-        } catch (QueryException e) {
-            view.displayError(e.getMessage());
-            System.exit(1);
-        }
+        });
     }
     
     /**
@@ -238,20 +432,29 @@ public class StudentPresenter {
         if (id.equals("") || "".equals(asg1 + "") || "".equals(asg2 + "") || "".equals(exam + "") || "".equals(total + "") || grade.equals("")) {
             throw new IllegalArgumentException("Arguments must not contain an empty string");
         }
-        try {
-            //The grade field will be calculated by calculate button
-            Student p = new Student(id, asg1, asg2, exam, total, grade);
-            int result = queries.command(UPDATE_CURRENT_GREADE, p);
-            if (result == 1) {
-                view.displayMessage("Current grade calculated");
-            } else {
-                view.displayMessage("Current grade not calculated");
+        run(() -> {
+            try {
+                //The grade field will be calculated by calculate button
+                Student p = new Student(id, asg1, asg2, exam, total, grade);
+                int result = queries.command(UPDATE_CURRENT_GREADE, p);
+                if (result == 1) {
+                    if (viewModel.versionOf(id) != Student.NO_VERSION) {
+                        // a new grade moves the record on a version, so read
+                        // it again for the next update
+                        List results = queries.select(BY_ID, id);
+                        if (!results.isEmpty()) {
+                            viewModel.replace((Student) results.get(0));
+                        }
+                    }
+                    view.displayMessage("Current grade calculated");
+                } else {
+                    view.displayMessage("Current grade not calculated");
+                }
+                view.setBrowsing(false);
+            } catch (QueryException e) {
+                fail(e);
             }
-            view.setBrowsing(false);
-        } catch (QueryException e) {
-            view.displayError(e.getMessage());
-            System.exit(1);
-        }
+        });
     }
     
     /**
@@ -259,24 +462,187 @@ public class StudentPresenter {
      * table marks.
      */
     public void calculateAllGrades(){
+        run(() -> {
+            try {
+                List results = queries.select(UPDATE_ALL_GRADE);
+                view.displayMessage("All grades calculated");
+                displayCurrentRecord(results);
+            } catch (QueryException e) {
+                fail(e);
+            }
+        });
+    }
+    
+    /**
+     * Display the number of records, the mean, median and 90th percentile of
+     * the total marks, and the number of records with each grade.
+     */
+    public void showStatistics() {
+        run(() -> {
+            if (statistics == null) {
+                view.displayMessage("Statistics are not available");
+                return;
+            }
+            try {
+                statistics.refresh();
+                StringBuilder sb = new StringBuilder();
+                sb.append(String.format("Students: %d%nMean total: %.1f%nMedian total: %d%n90th percentile: %d",
+                        statistics.getCount(), statistics.getMean(), statistics.getMedian(),
+                        statistics.getPercentile(90)));
+                for (Grade g : Grade.values()) {
+                    sb.append(String.format("%n%s: %d", g, statistics.getGradeCount(g)));
+                }
+                if (statistics.getUngradedCount() > 0) {
+                    sb.append(String.format("%nNo grade: %d", statistics.getUngradedCount()));
+                }
+                view.displayMessage(sb.toString());
+            } catch (QueryException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Write the records of a selection to a file, and display the number of
+     * records written.
+     * @param file the name of the file
+     * @param format the file format
+     * @param gzip whether to compress the file with gzip
+     * @param q the selection: ALL, RANGE, GRADE or TOLERANCE
+     * @param p parameters for the selection
+     * @throws IllegalArgumentException if the file name is an empty string,
+     * or the selection cannot be exported
+     */
+    @SuppressWarnings("unchecked")
+    public void export(String file, MarkExporter.Format format, boolean gzip, Query q, String... p) throws IllegalArgumentException {
+        if (file.equals("")) {
+            throw new IllegalArgumentException("Argument must not be an empty string");
+        }
+        MarkExporter.check(q, p);
+        run(() -> {
+            try {
+                int n = new MarkExporter(queries).export(Paths.get(file), format, gzip, q, p);
+                view.displayMessage(n + " records exported");
+            } catch (IOException | InvalidPathException e) {
+                view.displayMessage("Unable to export: " + e.getMessage());
+            } catch (QueryException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /*
+     * Run a task on the worker as a QueryTask, so that it can be cancelled on
+     * its own, showing the view as busy until every task that has been
+     * requested has finished.
+     */
+    private void run(Runnable task) {
+        if (pending.getAndIncrement() == 0) {
+            view.setBusy(true);
+        }
         try {
-            List results = queries.select(UPDATE_ALL_GRADE);
-            view.displayMessage("All grades calculated");
-            displayCurrentRecord(results);
-        } catch (QueryException e) {
-            view.displayError(e.getMessage());
+            worker.execute(() -> {
+                cancelling = false;
+                QueryTask t = new QueryTask();
+                running = t;
+                try {
+                    t.run(task);
+                } finally {
+                    running = null;
+                    if (pending.decrementAndGet() == 0) {
+                        view.setBusy(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the presenter has been closed
+            pending.decrementAndGet();
+        }
+    }
+
+    /*
+     * Report a query that failed and exit, or that it was cancelled.
+     */
+    private void fail(Exception e) {
+        if (cancelling) {
+            view.displayMessage("Query cancelled");
+            return;
+        }
+        ui.execute(() -> {
+            boundView.displayError(e.getMessage());
             System.exit(1);
+        });
+    }
+
+    /*
+     * Create threads for the worker: virtual threads when the platform
+     * provides them (Java 21 and later), otherwise a daemon platform thread.
+     */
+    private static ThreadFactory workerThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return r -> {
+                Thread t = new Thread(r, "presenter-worker");
+                t.setDaemon(true);
+                return t;
+            };
         }
     }
-    
+
+    /*
+     * A view that passes every call to the view it wraps on the UI executor
+     */
+    private static class MarshalledView implements IView<Object> {
+        private final IView<Object> v;
+        private final Executor ui;
+
+        @SuppressWarnings("unchecked")
+        MarshalledView(IView v, Executor ui) {
+            this.v = v;
+            this.ui = ui;
+        }
+
+        @Override
+        public void displayRecord(Object r) {
+            ui.execute(() -> v.displayRecord(r));
+        }
+
+        @Override
+        public void displayMessage(String m) {
+            ui.execute(() -> v.displayMessage(m));
+        }
+
+        @Override
+        public void setBrowsing(boolean b) {
+            ui.execute(() -> v.setBrowsing(b));
+        }
+
+        @Override
+        public void displayError(String e) {
+            ui.execute(() -> v.displayError(e));
+        }
+
+        @Override
+        public void setBusy(boolean b) {
+            ui.execute(() -> v.setBusy(b));
+        }
+    }
+
     /**
      *  Close the address book.
      */
     public void close() {
+        if (ownedWorker != null) {
+            ownedWorker.shutdownNow();
+        }
+        prefetcher.shutdownNow();
         try {
             connector.disconnect();
         } catch (ConnectionException e) {
-            view.displayError(e.getMessage());
+            boundView.displayError(e.getMessage());
             System.exit(1);
         }
     }
@@ -0,0 +1,67 @@
+package markassistancesystem.presenter;
+
+import markassistancesystem.model.Student;
+
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * StudentRows provides the records of a table browsing context maintained by
+ * StudentPresenter. Records are fetched a page at a time as they are asked
+ * for and only a window of pages is held in memory, so a table can show any
+ * number of records. Asking for a record never waits: a record that has not
+ * been fetched is returned as null, and the listener is told once it has been.
+ *
+ * @author Ziheng Cong
+ */
+public class StudentRows {
+
+    private final PagedList rows;
+    private final Executor ui;
+
+    /**
+     * Create the rows of a table browsing context
+     *
+     * @param rows the records being browsed
+     * @param ui the executor on which the listener is called
+     */
+    StudentRows(PagedList rows, Executor ui) {
+        this.rows = rows;
+        this.ui = ui;
+    }
+
+    /**
+     * @return the number of records being browsed
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Get a record without waiting for it to be fetched
+     * @param i the position of the record, from 0
+     * @return the record, or null if it has not been fetched yet
+     */
+    public Student peek(int i) {
+        return rows.peek(i);
+    }
+
+    /**
+     * Set the listener that is told the positions of the first and last
+     * records of each page that is fetched. The listener is called on the
+     * UI executor of the presenter.
+     * @param listener the listener, or null
+     */
+    public void setLoadListener(BiConsumer<Integer, Integer> listener) {
+        if (listener == null) {
+            rows.setLoadListener(null);
+            return;
+        }
+        int pageSize = rows.getPageSize();
+        rows.setLoadListener(p -> {
+            int first = p * pageSize;
+            int last = Math.min(first + pageSize, rows.size()) - 1;
+            ui.execute(() -> listener.accept(first, last));
+        });
+    }
+}
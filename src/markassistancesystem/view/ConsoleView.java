@@ -0,0 +1,88 @@
+package markassistancesystem.view;
+
+import markassistancesystem.model.MarkChangeEvent;
+import markassistancesystem.model.NearBoundary;
+import markassistancesystem.model.Student;
+import markassistancesystem.presenter.IndexedStudent;
+
+import java.io.PrintStream;
+import java.time.Instant;
+
+/**
+ * ConsoleView is a view that writes records and messages as lines of text,
+ * for use without a display. Records are written as comma separated fields;
+ * errors are written to a separate stream. It uses no AWT or Swing classes.
+ *
+ * @author Ziheng Cong
+ */
+public class ConsoleView implements IView<Object> {
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /**
+     * Create a view that writes to standard output and standard error
+     */
+    public ConsoleView() {
+        this(System.out, System.err);
+    }
+
+    /**
+     * Create a view that writes to the given streams
+     * @param out the stream for records and messages
+     * @param err the stream for errors
+     */
+    public ConsoleView(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Write a record: a Student, an IndexedStudent (prefixed with its
+     * position), a NearBoundary (followed by the boundary grade and the
+     * distance below it) or a MarkChangeEvent (its sequence, time and command,
+     * followed by the record written if there is one).
+     * @param r the record
+     */
+    @Override
+    public void displayRecord(Object r) {
+        if (r instanceof IndexedStudent) {
+            IndexedStudent ip = (IndexedStudent) r;
+            out.println(ip.getIndex() + "/" + ip.getSize() + "," + format(ip.getStudent()));
+        } else if (r instanceof NearBoundary) {
+            NearBoundary nb = (NearBoundary) r;
+            out.println(format(nb.getStudent()) + "," + nb.getBoundaryGrade() + "," + nb.getDistance());
+        } else if (r instanceof MarkChangeEvent) {
+            MarkChangeEvent e = (MarkChangeEvent) r;
+            out.println(e.getSequence() + "," + Instant.ofEpochMilli(e.getTime()) + "," + e.getQuery()
+                    + (e.getStudent() == null ? "" : "," + format(e.getStudent())));
+        } else if (r instanceof Student) {
+            out.println(format((Student) r));
+        } else {
+            out.println(r);
+        }
+    }
+
+    @Override
+    public void displayMessage(String m) {
+        out.println(m);
+    }
+
+    @Override
+    public void setBrowsing(boolean b) {
+    }
+
+    @Override
+    public void displayError(String e) {
+        err.println(e);
+    }
+
+    @Override
+    public void setBusy(boolean b) {
+    }
+
+    private static String format(Student p) {
+        return p.getStudentID() + "," + p.getAssignment1() + "," + p.getAssignment2() + ","
+                + p.getExam() + "," + p.getTotal() + "," + (p.getGrade() == null ? "" : p.getGrade().trim());
+    }
+}
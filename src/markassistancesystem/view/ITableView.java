@@ -0,0 +1,13 @@
+package markassistancesystem.view;
+
+import markassistancesystem.presenter.StudentRows;
+
+/**
+ * ITableView provides an interface for views that can also display a
+ * browsing context as a table
+ * @author Ziheng Cong
+ */
+public interface ITableView {
+    // Display the records, replacing those displayed before
+    void displayTable( StudentRows rows );
+}
@@ -10,5 +10,8 @@ public interface IView<T> {
     void displayMessage( String m );
     void setBrowsing( boolean b );
     void displayError( String e );
+    // Called with true when the presenter starts work that may take some time,
+    // and with false when it has finished
+    void setBusy( boolean b );
 }
 
@@ -0,0 +1,77 @@
+package markassistancesystem.view;
+
+import markassistancesystem.presenter.StudentPresenter;
+import markassistancesystem.presenter.StudentRows;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import javax.swing.*;
+
+/**
+ * StudentTableFrame displays all records as a table that is filled in as it
+ * is scrolled, with a choice of the order of the records.
+ *
+ * @author Ziheng Cong
+ */
+public class StudentTableFrame extends JFrame {
+    // the presenter for this view
+    private final StudentPresenter presenter;
+
+    // GUI components
+    private final StudentTableModel model = new StudentTableModel();
+    private final JTable table = new JTable(model);
+    private final JComboBox<StudentPresenter.Order> orderComboBox =
+            new JComboBox<>(StudentPresenter.Order.values());
+
+    public StudentTableFrame(StudentPresenter pp) {
+        super("Mark Assistance System - All Entries");
+
+        presenter = pp;
+
+        setLayout(new BorderLayout());
+        setSize(520, 600);
+
+        // Construct a panel to choose the order of the records
+        JPanel orderPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        orderPanel.add(new JLabel("Order by:"));
+        orderComboBox.addActionListener( (ActionEvent evt) -> {
+            orderComboBoxActionPerformed(evt);
+        } );
+        orderPanel.add(orderComboBox);
+        add(orderPanel, BorderLayout.NORTH);
+
+        // Records are sorted by the database; a row sorter would read every
+        // row of the table
+        table.setAutoCreateRowSorter(false);
+        table.setFillsViewportHeight(true);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+    }
+
+    /**
+     * Show a new set of rows. Must be called on the Swing event dispatch
+     * thread.
+     * @param rows the rows
+     */
+    public void setRows(StudentRows rows) {
+        model.setRows(rows);
+        if (!isVisible()) {
+            setVisible(true);
+        }
+    }
+
+    // Event handlers
+    // handles call when the order is changed
+    private void orderComboBoxActionPerformed(ActionEvent evt) {
+        presenter.selectTable((StudentPresenter.Order) orderComboBox.getSelectedItem());
+    }
+
+    /**
+     * @return the order selected in the frame
+     */
+    public StudentPresenter.Order getOrder() {
+        return (StudentPresenter.Order) orderComboBox.getSelectedItem();
+    }
+}
@@ -0,0 +1,84 @@
+package markassistancesystem.view;
+
+import markassistancesystem.model.Student;
+import markassistancesystem.presenter.StudentRows;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * StudentTableModel is a table model over the rows of a table browsing
+ * context. Cells are drawn from whatever records have been fetched; a record
+ * that has not been fetched is drawn as a placeholder, and its row is redrawn
+ * once it has been. Only the records near the visible rows are held in
+ * memory.
+ *
+ * @author Ziheng Cong
+ */
+public class StudentTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMNS = {
+        "Student ID", "Assignment 1", "Assignment 2", "Exam", "Total", "Grade"
+    };
+
+    private static final String LOADING = "...";
+
+    private StudentRows rows;
+
+    /**
+     * Show a new set of rows, replacing the rows shown before. Must be called
+     * on the Swing event dispatch thread.
+     * @param r the rows, or null for none
+     */
+    public void setRows(StudentRows r) {
+        if (rows != null) {
+            rows.setLoadListener(null);
+        }
+        rows = r;
+        if (r != null) {
+            r.setLoadListener((first, last) -> {
+                // ignore pages of rows that have since been replaced
+                if (rows == r && first <= last) {
+                    fireTableRowsUpdated(first, last);
+                }
+            });
+        }
+        fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows == null ? 0 : rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Student p = rows.peek(row);
+        if (p == null) {
+            return column == 0 ? LOADING : "";
+        }
+        switch (column) {
+            case 0:
+                return p.getStudentID();
+            case 1:
+                return p.getAssignment1();
+            case 2:
+                return p.getAssignment2();
+            case 3:
+                return p.getExam();
+            case 4:
+                return p.getTotal();
+            default:
+                return p.getGrade();
+        }
+    }
+}
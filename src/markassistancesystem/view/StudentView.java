@@ -2,8 +2,10 @@ package markassistancesystem.view;
 
 import markassistancesystem.presenter.StudentPresenter;
 import markassistancesystem.presenter.IndexedStudent;
+import markassistancesystem.presenter.StudentRows;
 import markassistancesystem.model.Student;
 
+import java.awt.Cursor;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
@@ -17,7 +19,7 @@ import javax.swing.*;
  * @author Ziheng Cong
  */
 
-public class StudentView extends JFrame implements IView<IndexedStudent> {
+public class StudentView extends JFrame implements IView<IndexedStudent>, ITableView {
     // the presenter for this view
     private StudentPresenter presenter;
 
@@ -55,6 +57,10 @@ public class StudentView extends JFrame implements IView<IndexedStudent> {
     private JButton rangeFindButton;
     private JButton browseAllEntiesButton;
     private JButton updateCurrentEntryButton;
+    private JButton cancelButton;
+    private JButton tableButton;
+    private JButton statisticsButton;
+    private StudentTableFrame tableFrame;
     private JPanel gradeQueryPanel;
     private JLabel gradeFindLabel;
     private JTextField gradeFindTextField;
@@ -100,6 +106,9 @@ public class StudentView extends JFrame implements IView<IndexedStudent> {
         rangeFindButton = new JButton();
         browseAllEntiesButton = new JButton();
         updateCurrentEntryButton = new JButton();
+        cancelButton = new JButton();
+        tableButton = new JButton();
+        statisticsButton = new JButton();
         gradeQueryPanel = new JPanel();
         gradeFindLabel = new JLabel();
         gradeFindTextField = new JTextField(10);
@@ -107,7 +116,7 @@ public class StudentView extends JFrame implements IView<IndexedStudent> {
         
 
         setLayout(new FlowLayout(FlowLayout.CENTER, 10, 10));
-        setSize(400, 495);
+        setSize(400, 600);
         setResizable(false);
         
         // Construct a panel for browsing of records - previous and next buttons,
@@ -266,6 +275,25 @@ public class StudentView extends JFrame implements IView<IndexedStudent> {
             updateButtonActionPerformed(evt);
         } );
         add(updateCurrentEntryButton);
+
+        cancelButton.setText("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener( (ActionEvent evt) -> {
+            cancelButtonActionPerformed(evt);
+        } );
+        add(cancelButton);
+
+        tableButton.setText("Table View");
+        tableButton.addActionListener( (ActionEvent evt) -> {
+            tableButtonActionPerformed(evt);
+        } );
+        add(tableButton);
+
+        statisticsButton.setText("Statistics");
+        statisticsButton.addActionListener( (ActionEvent evt) -> {
+            statisticsButtonActionPerformed(evt);
+        } );
+        add(statisticsButton);
         
         
         addWindowListener(
@@ -341,6 +369,24 @@ public class StudentView extends JFrame implements IView<IndexedStudent> {
         presenter.selectAll();
     }
 
+    // handles call when cancelButton is clicked
+    private void cancelButtonActionPerformed(ActionEvent evt){
+        presenter.cancel();
+    }
+
+    // handles call when tableButton is clicked
+    private void tableButtonActionPerformed(ActionEvent evt){
+        if (tableFrame == null) {
+            tableFrame = new StudentTableFrame(presenter);
+        }
+        presenter.selectTable(tableFrame.getOrder());
+    }
+
+    // handles call when statisticsButton is clicked
+    private void statisticsButtonActionPerformed(ActionEvent evt){
+        presenter.showStatistics();
+    }
+
     
     // IView interface implementation
 
@@ -374,4 +420,18 @@ public class StudentView extends JFrame implements IView<IndexedStudent> {
         System.err.println(s);
     }
 
+    @Override
+    public void displayTable( StudentRows rows ) {
+        if (tableFrame == null) {
+            tableFrame = new StudentTableFrame(presenter);
+        }
+        tableFrame.setRows(rows);
+    }
+
+    @Override
+    public void setBusy( boolean flag ) {
+        setCursor( Cursor.getPredefinedCursor( flag ? Cursor.WAIT_CURSOR : Cursor.DEFAULT_CURSOR ) );
+        cancelButton.setEnabled( flag );
+    }
+
 }
@@ -0,0 +1,76 @@
+package markassistancesystem.model;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the cache of the marks sees changes made by other clients,
+ * including those that write the marks without a module.
+ *
+ * @author Ziheng Cong
+ */
+public class CachingQueryTest {
+
+    private static final int STUDENTS = 10;
+
+    private MemoryMarks marks;
+    private CachingQuery cache;
+
+    @Before
+    public void setUp() throws Exception {
+        marks = new MemoryMarks("cachingQuery");
+        marks.seed(STUDENTS);
+        // check for changes at every selection
+        cache = new CachingQuery(marks.module(), 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marks.close();
+    }
+
+    @Test
+    public void plainJdbcWriteIsSeen() throws Exception {
+        assertEquals(STUDENTS, cache.select(Query.ALL).size());
+        long changes = marks.module().getChangeCount();
+        try (Connection connection = marks.open(); Statement s = connection.createStatement()) {
+            assertEquals(1, s.executeUpdate("UPDATE Marks SET Assignment1 = 0, Assignment2 = 0, Exam = 0,"
+                    + " Total = 0, Grade = 'AF' WHERE StudentID = 'S0000000'"));
+        }
+        // one statement is one change
+        assertEquals(changes + 1, marks.module().getChangeCount());
+        assertEquals("S0000000", cache.select(Query.GRADE, "AF").get(0).getStudentID());
+        assertEquals(0, cache.select(Query.RANGE, "0", "0").get(0).getTotal());
+    }
+
+    @Test
+    public void conflictReplacesStaleRecord() throws Exception {
+        // a cache that would not check for changes again during the test
+        CachingQuery slow = new CachingQuery(marks.module(), 60000);
+        Student stale = slow.select(Query.RANGE, "0", "100").stream()
+                .filter(p -> p.getStudentID().equals("S0000000")).findFirst().get();
+        try (Connection connection = marks.open(); Statement s = connection.createStatement()) {
+            assertEquals(1, s.executeUpdate("UPDATE Marks SET Assignment1 = 0, Assignment2 = 0, Exam = 0,"
+                    + " Total = 0, Grade = 'AF', Version = Version + 1 WHERE StudentID = 'S0000000'"));
+        }
+        try {
+            slow.command(Query.UPDATE, new Student(stale.getStudentID(), 1, 1, 1, 3, "F", stale.getVersion()));
+            fail("The stale update was written");
+        } catch (ConcurrentUpdateException e) {
+            assertEquals(0, e.getCurrent().getTotal());
+        }
+        assertEquals("S0000000", slow.select(Query.RANGE, "0", "0").get(0).getStudentID());
+        assertTrue(slow.select(Query.GRADE, "AF").stream().anyMatch(p -> p.getStudentID().equals("S0000000")));
+        assertTrue(slow.select(Query.RANGE, (stale.getTotal()) + "", stale.getTotal() + "").stream()
+                .noneMatch(p -> p.getStudentID().equals("S0000000")));
+    }
+}
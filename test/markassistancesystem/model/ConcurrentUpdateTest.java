@@ -0,0 +1,126 @@
+package markassistancesystem.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks optimistic concurrency control: versioned UPDATEs of the same
+ * records from many threads either commit or fail with a
+ * ConcurrentUpdateException, and each record ends at one version per
+ * committed update.
+ *
+ * @author Ziheng Cong
+ */
+public class ConcurrentUpdateTest {
+
+    private static final int STUDENTS = 3;
+    private static final int THREADS = 8;
+    private static final int ATTEMPTS = 100;
+
+    private MemoryMarks marks;
+
+    @Before
+    public void setUp() throws Exception {
+        marks = new MemoryMarks("concurrentUpdate");
+        marks.seed(STUDENTS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marks.close();
+    }
+
+    @Test
+    public void everyVersionedUpdateCommitsOrConflicts() throws Exception {
+        MarkAssistanceSystemModule module = marks.module();
+        long changes = module.getChangeCount();
+        AtomicIntegerArray committed = new AtomicIntegerArray(STUDENTS);
+        AtomicIntegerArray conflicts = new AtomicIntegerArray(STUDENTS);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int first = t;
+                results.add(threads.submit((Callable<Void>) () -> {
+                    start.await();
+                    for (int i = 0; i < ATTEMPTS; i++) {
+                        int k = (first + i) % STUDENTS;
+                        Student s = module.select(Query.BY_ID, id(k)).get(0);
+                        Student p = new Student(s.getStudentID(), s.getAssignment1(), s.getAssignment2(),
+                                (s.getExam() + 1) % 51, s.getTotal(), s.getGrade(), s.getVersion());
+                        try {
+                            assertEquals(1, module.command(Query.UPDATE, p));
+                            committed.incrementAndGet(k);
+                        } catch (ConcurrentUpdateException e) {
+                            conflicts.incrementAndGet(k);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> f : results) {
+                f.get();
+            }
+        } finally {
+            threads.shutdown();
+        }
+        int total = 0;
+        for (int k = 0; k < STUDENTS; k++) {
+            Student s = module.select(Query.BY_ID, id(k)).get(0);
+            assertEquals("version of " + id(k), committed.get(k), s.getVersion());
+            total += committed.get(k);
+        }
+        assertEquals(THREADS * ATTEMPTS, total + totalOf(conflicts));
+        assertTrue("no update committed", total > 0);
+        // each committed update counts one change
+        assertEquals(changes + total, module.getChangeCount());
+    }
+
+    @Test
+    public void changedGradeMovesVersion() throws Exception {
+        MarkAssistanceSystemModule module = marks.module();
+        Student hd = new Student(id(0), 20, 30, 50, 100, "F");
+        assertEquals(1, module.command(Query.UPDATE, hd));
+        Student read = module.select(Query.BY_ID, id(0)).get(0);
+        assertEquals(1, module.command(Query.UPDATE_CURRENT_GREADE, hd));
+        assertEquals(read.getVersion() + 1, module.select(Query.BY_ID, id(0)).get(0).getVersion());
+        // the same grade again is no change
+        assertEquals(1, module.command(Query.UPDATE_CURRENT_GREADE, hd));
+        assertEquals(read.getVersion() + 1, module.select(Query.BY_ID, id(0)).get(0).getVersion());
+        try {
+            module.command(Query.UPDATE, read);
+            fail("a record read before its grade changed overwrote the new grade");
+        } catch (ConcurrentUpdateException e) {
+            assertEquals("HD", e.getCurrent().getGrade().trim());
+        }
+    }
+
+    private static String id(int k) {
+        return String.format("S%07d", k);
+    }
+
+    private static int totalOf(AtomicIntegerArray counts) {
+        int n = 0;
+        for (int k = 0; k < counts.length(); k++) {
+            n += counts.get(k);
+        }
+        return n;
+    }
+}
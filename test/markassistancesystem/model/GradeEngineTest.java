@@ -0,0 +1,71 @@
+package markassistancesystem.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks GradeEngine against the grade determination that it replaced, for
+ * every combination of marks and total in range and one mark either side of
+ * each range, so that a change to the engine cannot change a grade unnoticed.
+ *
+ * @author Ziheng Cong
+ */
+public class GradeEngineTest {
+
+    private static final int MAX_ASN1 = 20;
+    private static final int MAX_ASN2 = 30;
+    private static final int MAX_EXAM = 50;
+    private static final int MAX_TOTAL = 100;
+
+    @Test
+    public void engineMatchesLegacyRulesForEveryCombination() {
+        int checked = 0;
+        for (int total = -1; total <= MAX_TOTAL + 1; total++) {
+            for (int asn1 = -1; asn1 <= MAX_ASN1 + 1; asn1++) {
+                for (int asn2 = -1; asn2 <= MAX_ASN2 + 1; asn2++) {
+                    for (int exam = -1; exam <= MAX_EXAM + 1; exam++) {
+                        String expected = gradeDetermination(total, asn1, asn2, exam);
+                        String actual = GradeEngine.gradeOf(total, asn1, asn2, exam).name();
+                        if (!expected.equals(actual)) {
+                            assertEquals("total " + total + ", marks " + asn1 + ", " + asn2 + ", " + exam,
+                                    expected, actual);
+                        }
+                        checked++;
+                    }
+                }
+            }
+        }
+        assertEquals((MAX_TOTAL + 3) * (MAX_ASN1 + 3) * (MAX_ASN2 + 3) * (MAX_EXAM + 3), checked);
+    }
+
+    /*
+     * The grade determination method as it was before GradeEngine
+     */
+    private static String gradeDetermination(Integer total, Integer asn1, Integer asn2, Integer exam){
+        String grade = "?";
+        if (total>=85) {
+            grade = "HD";
+        }else if (total>=75 && total<85){
+            grade = "D";
+        }else if (total>=65 && total<75){
+            grade = "C";
+        }else if(total>=50 && total<65){
+            grade = "P";
+        }else if(total<50){
+            if (total>=45 && asn1<10 && asn2>=15 && exam>=25) {
+                grade = "SA";
+            }else if (total>=45 && asn2<15 && asn1>=10 && exam>=25) {
+                grade = "SA";
+            }else if (total>=45 && asn1>10 && asn2<15 && exam<25) {
+                grade = "SE";
+            }else if (asn1==0 && asn2==0 && exam==0){
+                grade = "AF";
+            }else{
+                grade = "F";
+            }
+        }
+        return grade;
+    }
+
+}
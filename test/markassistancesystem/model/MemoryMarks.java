@@ -0,0 +1,117 @@
+package markassistancesystem.model;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * An embedded in-memory Derby database of marks for tests, so that no
+ * database server is needed. The schema is created by the module, as it is
+ * in use; the database is discarded when it is closed.
+ *
+ * @author Ziheng Cong
+ */
+final class MemoryMarks implements AutoCloseable {
+
+    private static final String USERNAME = "marks";
+    private static final String PASSWORD = "marks";
+    private static final int COMMIT_SIZE = 1000;
+
+    private final String name;
+    private final MarkAssistanceSystemModule module;
+
+    /**
+     * Create an empty database and a module connected to it, with the schema
+     * brought up to date
+     * @param name the database name, unique among the open databases
+     * @throws ConnectionException
+     */
+    MemoryMarks(String name) throws ConnectionException {
+        this.name = name;
+        module = new MarkAssistanceSystemModule(url() + ";create=true", USERNAME, PASSWORD);
+        module.connect();
+        module.initialise();
+    }
+
+    /**
+     * @return the module connected to the database
+     */
+    MarkAssistanceSystemModule module() {
+        return module;
+    }
+
+    /**
+     * Open a plain connection to the database
+     * @return the connection
+     * @throws SQLException
+     */
+    Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url(), USERNAME, PASSWORD);
+        connection.setSchema("APP");
+        return connection;
+    }
+
+    /**
+     * Insert records with random but repeatable marks, totals that are the
+     * sum of the marks and random grades, so that a regrade has work to do.
+     * Student IDs are S0000000, S0000001 and so on. The index statistics are
+     * then updated, as after a bulk load, so that statements are planned for
+     * a table of that size rather than the empty one they were prepared on.
+     * @param size the number of records
+     * @throws SQLException
+     */
+    void seed(int size) throws SQLException {
+        Grade[] grades = Grade.values();
+        Random random = new Random(42);
+        try (Connection connection = open(); PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO Marks (StudentID, Assignment1, Assignment2, Exam, Total, Grade)"
+                + " VALUES (?, ?, ?, ?, ?, ?)")) {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < size; i++) {
+                int asn1 = random.nextInt(21);
+                int asn2 = random.nextInt(31);
+                int exam = random.nextInt(51);
+                ps.setString(1, String.format("S%07d", i));
+                ps.setInt(2, asn1);
+                ps.setInt(3, asn2);
+                ps.setInt(4, exam);
+                ps.setInt(5, asn1 + asn2 + exam);
+                ps.setString(6, grades[random.nextInt(grades.length)].name());
+                ps.addBatch();
+                if ((i + 1) % COMMIT_SIZE == 0) {
+                    ps.executeBatch();
+                    connection.commit();
+                }
+            }
+            ps.executeBatch();
+            connection.commit();
+        }
+        try (Connection connection = open(); Statement s = connection.createStatement()) {
+            s.execute("CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS('APP', 'MARKS', NULL)");
+        }
+    }
+
+    /**
+     * Disconnect the module and discard the database
+     * @throws ConnectionException
+     */
+    @Override
+    public void close() throws ConnectionException {
+        try {
+            module.disconnect();
+        } finally {
+            try {
+                DriverManager.getConnection(url() + ";drop=true", USERNAME, PASSWORD).close();
+            } catch (SQLException e) {
+                // Derby reports a successful drop with an exception
+            }
+        }
+    }
+
+    private String url() {
+        return "jdbc:derby:memory:" + name;
+    }
+}
@@ -0,0 +1,91 @@
+package markassistancesystem.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import markassistancesystem.model.MarkAssistanceSystemModule.Regrade;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the PARALLEL regrade writes the same grades, and reports the
+ * same counts and transitions, as the INCREMENTAL regrade of the same marks,
+ * with enough records that the marks are split into several ranges.
+ *
+ * @author Ziheng Cong
+ */
+public class ParallelRegradeTest {
+
+    private static final int STUDENTS = 5000;
+    private static final int BATCH_SIZE = 200;
+    private static final int PARALLELISM = 4;
+
+    private MemoryMarks incremental;
+    private MemoryMarks parallel;
+
+    @Before
+    public void setUp() throws Exception {
+        incremental = new MemoryMarks("incrementalRegrade");
+        incremental.seed(STUDENTS);
+        incremental.module().setRegrade(Regrade.INCREMENTAL);
+        incremental.module().setBatchSize(BATCH_SIZE);
+        parallel = new MemoryMarks("parallelRegrade");
+        parallel.seed(STUDENTS);
+        parallel.module().setRegrade(Regrade.PARALLEL);
+        parallel.module().setBatchSize(BATCH_SIZE);
+        parallel.module().setParallelism(PARALLELISM);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            incremental.close();
+        } finally {
+            parallel.close();
+        }
+    }
+
+    @Test
+    public void parallelRegradeMatchesIncremental() throws Exception {
+        RegradeSummary expected = incremental.module().regradeAll();
+        long changes = parallel.module().getChangeCount();
+        RegradeSummary actual = parallel.module().regradeAll();
+        // each range is committed, and counted, as its own change
+        assertTrue("the marks were not partitioned", parallel.module().getChangeCount() - changes > 1);
+
+        assertEquals(STUDENTS, actual.getRowsScanned());
+        assertEquals(expected.getRowsScanned(), actual.getRowsScanned());
+        assertEquals(expected.getRowsUpdated(), actual.getRowsUpdated());
+        assertEquals(expected.getRowsChanged(), actual.getRowsChanged());
+        assertTrue("no grade changed", actual.getRowsChanged() > 0);
+        assertEquals(expected.getTransitions(), actual.getTransitions());
+        assertSameGrades(sorted(expected.getStudents()), actual.getStudents());
+        // the records are stored as they are reported
+        assertSameGrades(sorted(expected.getStudents()), sorted(parallel.module().select(Query.ALL)));
+        assertSameGrades(sorted(incremental.module().select(Query.ALL)),
+                sorted(parallel.module().select(Query.ALL)));
+    }
+
+    private static List<Student> sorted(List<Student> students) {
+        List<Student> results = new ArrayList<>(students);
+        results.sort((a, b) -> a.getStudentID().compareTo(b.getStudentID()));
+        return results;
+    }
+
+    private static void assertSameGrades(List<Student> expected, List<Student> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Student e = expected.get(i);
+            Student a = actual.get(i);
+            assertEquals(e.getStudentID(), a.getStudentID());
+            // fixed width grade columns are padded
+            assertEquals(e.getStudentID(), e.getGrade().trim(), a.getGrade().trim());
+            assertEquals(e.getStudentID(), e.getVersion(), a.getVersion());
+        }
+    }
+}
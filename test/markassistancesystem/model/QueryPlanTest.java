@@ -0,0 +1,55 @@
+package markassistancesystem.model;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the selections by total and by grade are answered from the
+ * indexes created for them by the schema migration.
+ *
+ * @author Ziheng Cong
+ */
+public class QueryPlanTest {
+
+    private static final int STUDENTS = 5000;
+
+    private MemoryMarks marks;
+
+    @Before
+    public void setUp() throws Exception {
+        marks = new MemoryMarks("queryPlan");
+        marks.seed(STUDENTS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marks.close();
+    }
+
+    @Test
+    public void rangeUsesTotalIndex() throws Exception {
+        assertUses("MARKSTOTALIDX", marks.module().getQueryPlan(Query.RANGE, "50", "52"));
+    }
+
+    @Test
+    public void toleranceUsesTotalIndex() throws Exception {
+        assertUses("MARKSTOTALIDX", marks.module().getQueryPlan(Query.TOLERANCE, "1"));
+    }
+
+    @Test
+    public void gradeUsesCoveringIndex() throws Exception {
+        String plan = marks.module().getQueryPlan(Query.GRADE, "HD");
+        assertUses("MARKSGRADEVERSIONIDX", plan);
+        // every column is read from the index, in order of total
+        assertTrue(plan, !plan.contains("Index Row to Base Row"));
+        assertTrue(plan, !plan.contains("Sort ResultSet"));
+    }
+
+    private static void assertUses(String index, String plan) {
+        assertTrue(plan, plan.contains("using index " + index));
+    }
+}
@@ -0,0 +1,103 @@
+package markassistancesystem.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import markassistancesystem.model.MarkAssistanceSystemModule.Regrade;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the grades written by the SERVER_SIDE regrade, which runs
+ * UPDATE_ALL_GRADE_IN_DATABASE, are those of the Java grade rules for every
+ * combination of marks and total in range.
+ *
+ * @author Ziheng Cong
+ */
+public class ServerSideRegradeTest {
+
+    private static final int MAX_ASN1 = 20;
+    private static final int MAX_ASN2 = 30;
+    private static final int MAX_EXAM = 50;
+    private static final int MAX_TOTAL = 100;
+
+    private MemoryMarks marks;
+
+    @Before
+    public void setUp() throws Exception {
+        marks = new MemoryMarks("serverSideRegrade");
+        marks.module().setRegrade(Regrade.SERVER_SIDE);
+        // The indexes and the triggers that count changes are not under
+        // test, and maintaining them would make each of the many regrades
+        // several times slower
+        try (Connection connection = marks.open(); Statement s = connection.createStatement()) {
+            s.executeUpdate("DROP INDEX MarksTotalIdx");
+            s.executeUpdate("DROP INDEX MarksGradeVersionIdx");
+            s.executeUpdate("DROP TRIGGER MarksCountInsert");
+            s.executeUpdate("DROP TRIGGER MarksCountUpdate");
+            s.executeUpdate("DROP TRIGGER MarksCountDelete");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marks.close();
+    }
+
+    @Test
+    public void gradesMatchJavaRulesForEveryCombination() throws Exception {
+        // One record for each combination of marks; the stored total is then
+        // set to each total in range in turn, as it need not be their sum
+        Map<String, int[]> combinations = new HashMap<>();
+        try (Connection connection = marks.open(); PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO Marks (StudentID, Assignment1, Assignment2, Exam, Total) VALUES (?, ?, ?, ?, 0)")) {
+            connection.setAutoCommit(false);
+            for (int asn1 = 0; asn1 <= MAX_ASN1; asn1++) {
+                for (int asn2 = 0; asn2 <= MAX_ASN2; asn2++) {
+                    for (int exam = 0; exam <= MAX_EXAM; exam++) {
+                        String id = String.format("%02d%02d%02d", asn1, asn2, exam);
+                        combinations.put(id, new int[] { asn1, asn2, exam });
+                        ps.setString(1, id);
+                        ps.setInt(2, asn1);
+                        ps.setInt(3, asn2);
+                        ps.setInt(4, exam);
+                        ps.addBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            connection.commit();
+        }
+        for (int total = 0; total <= MAX_TOTAL; total++) {
+            setTotals(total);
+            List<Student> students = marks.module().regradeAll().getStudents();
+            assertEquals(combinations.size(), students.size());
+            for (Student s : students) {
+                int[] m = combinations.get(s.getStudentID());
+                // the two paths pad the fixed width grade column differently
+                assertEquals("marks " + s.getStudentID() + ", total " + total,
+                        MarkAssistanceSystemModule.gradeDetermination(total, m[0], m[1], m[2]),
+                        s.getGrade().trim());
+            }
+        }
+    }
+
+    /*
+     * Store the same total, and no grade, in every record
+     */
+    private void setTotals(int total) throws SQLException {
+        try (Connection connection = marks.open();
+                PreparedStatement ps = connection.prepareStatement("UPDATE Marks SET Total = ?, Grade = NULL")) {
+            ps.setInt(1, total);
+            ps.executeUpdate();
+        }
+    }
+}